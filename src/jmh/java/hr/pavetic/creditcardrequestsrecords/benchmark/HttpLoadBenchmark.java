@@ -0,0 +1,131 @@
+package hr.pavetic.creditcardrequestsrecords.benchmark;
+
+import hr.pavetic.creditcardrequestsrecords.Application;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the running application over HTTP, with many more concurrent
+ * clients than Tomcat threads, comparing request handling on platform and
+ * virtual threads. Virtual threads mode requires Java 21 build and runtime.
+ * <p>
+ * Each operation creates and completes a credit card request of a random
+ * person, i.e. blocks on both database and file system.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Threads(400)
+@Fork(1)
+public class HttpLoadBenchmark {
+
+    private static final int POPULATE_BATCH_SIZE = 1000;
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    @Param({"10000"})
+    private int people;
+
+    /**
+     * Tomcat thread pool size, used only when not running on virtual threads.
+     */
+    @Param({"50"})
+    private int tomcatThreads;
+
+    private ConfigurableApplicationContext context;
+    private Path requestsFolder;
+    private HttpClient client;
+    private String baseUrl;
+    private String[] oibs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        requestsFolder = Paths.get("target", "jmh-requests", "http-load-" + virtualThreads);
+        FileSystemUtils.deleteRecursively(requestsFolder.toFile());
+        context = new SpringApplicationBuilder(Application.class)
+                .run("--server.port=0",
+                        "--server.tomcat.threads.max=" + tomcatThreads,
+                        "--virtual-threads-enabled=" + virtualThreads,
+                        "--spring.datasource.url=jdbc:h2:mem:http-load;mode=Oracle;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=create",
+                        "--spring.jpa.show-sql=false",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        // Rejected requests of concurrently used people are expected
+                        "--logging.level.hr.pavetic.creditcardrequestsrecords.controller=OFF",
+                        "--requests-folder=" + requestsFolder);
+        baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port")
+                + "/api/v1/credit-card-request";
+
+        PersonRepository personRepository = context.getBean(PersonRepository.class);
+        oibs = new String[people];
+        List<Person> batch = new ArrayList<>(POPULATE_BATCH_SIZE);
+        for (int i = 0; i < people; i++) {
+            oibs[i] = String.format("%011d", i * 2_654_435_761L % 100_000_000_000L);
+            batch.add(getPersonDto(oibs[i]).toDomain(Status.INACTIVE));
+            if (batch.size() == POPULATE_BATCH_SIZE || i == people - 1) {
+                personRepository.saveAll(batch);
+                batch.clear();
+            }
+        }
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(requestsFolder);
+    }
+
+    /**
+     * @return sum of response status codes, so responses are not optimized away.
+     */
+    @Benchmark
+    public int createAndCompleteRequest() throws IOException, InterruptedException {
+        String oib = oibs[ThreadLocalRandom.current().nextInt(oibs.length)];
+        String body = "{\"oib\":\"" + oib + "\",\"name\":\"Dorian\",\"lastName\":\"Pavetic\",\"status\":\"ACTIVE\"}";
+        // Request may already be active due to concurrent operation on the same person
+        int created = post(baseUrl, body);
+        int completed = post(baseUrl + "/complete", body);
+        return created + completed;
+    }
+
+    private int post(String url, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static PersonDto getPersonDto(String oib) {
+        return PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .build();
+    }
+}
@@ -0,0 +1,160 @@
+package hr.pavetic.creditcardrequestsrecords.benchmark;
+
+import hr.pavetic.creditcardrequestsrecords.Application;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import org.springframework.util.FileSystemUtils;
+
+import javax.sql.DataSource;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistence of people under the default (dev) and the production profile,
+ * both against a file H2 database: acquiring a connection, inserting people
+ * in batches and searching them by OIB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class PersistenceProfileBenchmark {
+
+    private static final int POPULATE_BATCH_SIZE = 1000;
+    private static final int INSERT_BATCH_SIZE = 100;
+
+    @Param({"dev", "prod"})
+    private String profile;
+
+    @Param({"100000"})
+    private int people;
+
+    private ConfigurableApplicationContext context;
+    private DataSource dataSource;
+    private PersonRepository personRepository;
+    private String url;
+    private String username;
+    private String password;
+    private String[] oibs;
+    private final AtomicLong nextOib = new AtomicLong();
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path databaseFolder = Paths.get("target", "jmh-db", profile);
+        FileSystemUtils.deleteRecursively(databaseFolder);
+        Files.createDirectories(databaseFolder);
+        // Statements logged by show-sql go where application output would go, not into benchmark output
+        stdout = System.out;
+        System.setOut(newPrintStream(databaseFolder.resolve("stdout.log")));
+
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                // Command line arguments, as they override application.yml
+                .run("--spring.profiles.active=" + profile,
+                        "--database-file=" + databaseFolder.toAbsolutePath().resolve("db"),
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--requests-folder=target/jmh-requests/persistence-" + profile);
+        dataSource = context.getBean(DataSource.class);
+        personRepository = context.getBean(PersonRepository.class);
+        Environment environment = context.getEnvironment();
+        url = environment.getRequiredProperty("spring.datasource.url");
+        username = environment.getRequiredProperty("spring.datasource.username");
+        password = environment.getRequiredProperty("spring.datasource.password");
+
+        oibs = new String[people];
+        List<Person> batch = new ArrayList<>(POPULATE_BATCH_SIZE);
+        for (int i = 0; i < people; i++) {
+            oibs[i] = oib(i);
+            batch.add(person(oibs[i]));
+            if (batch.size() == POPULATE_BATCH_SIZE || i == people - 1) {
+                personRepository.saveAll(batch);
+                batch.clear();
+            }
+        }
+        nextOib.set(people);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        System.out.close();
+        System.setOut(stdout);
+    }
+
+    /**
+     * Connection from the pool, as used for every transaction.
+     */
+    @Benchmark
+    public void acquirePooledConnection() throws SQLException {
+        dataSource.getConnection().close();
+    }
+
+    /**
+     * New physical connection, as opened when pool grows or replaces a connection.
+     */
+    @Benchmark
+    public void openConnection() throws SQLException {
+        try (Connection ignored = DriverManager.getConnection(url, username, password)) {
+            // Only opening is measured
+        }
+    }
+
+    /**
+     * Inserts a batch of new people in a single transaction - score is in batches.
+     */
+    @Benchmark
+    public List<Person> insertPeople() {
+        List<Person> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        long first = nextOib.getAndAdd(INSERT_BATCH_SIZE);
+        for (int i = 0; i < INSERT_BATCH_SIZE; i++)
+            batch.add(person(oib(first + i)));
+        return personRepository.saveAll(batch);
+    }
+
+    @Benchmark
+    public Person searchPerson() {
+        return personRepository.findByOibOrderByIdDesc(oibs[ThreadLocalRandom.current().nextInt(oibs.length)]);
+    }
+
+    private static String oib(long i) {
+        return String.format("%011d", i * 2_654_435_761L % 100_000_000_000L);
+    }
+
+    private static Person person(String oib) {
+        return PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .build()
+                .toDomain(Status.INACTIVE);
+    }
+
+    private static PrintStream newPrintStream(Path file) throws FileNotFoundException {
+        return new PrintStream(new FileOutputStream(file.toFile()), true);
+    }
+}
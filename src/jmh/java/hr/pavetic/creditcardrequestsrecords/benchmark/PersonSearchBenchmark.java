@@ -0,0 +1,93 @@
+package hr.pavetic.creditcardrequestsrecords.benchmark;
+
+import hr.pavetic.creditcardrequestsrecords.Application;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import hr.pavetic.creditcardrequestsrecords.service.PersonService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Person search by OIB against in-memory H2 database, both through the
+ * (cached) service and directly through the repository.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonSearchBenchmark {
+
+    private static final int POPULATE_BATCH_SIZE = 1000;
+
+    @Param({"100000"})
+    private int people;
+
+    private ConfigurableApplicationContext context;
+    private PersonService personService;
+    private PersonRepository personRepository;
+    private String[] oibs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                // Command line arguments, as they override application.yml
+                .run("--spring.datasource.url=jdbc:h2:mem:benchmark;mode=Oracle;DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.hibernate.ddl-auto=create",
+                        "--spring.jpa.show-sql=false",
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--requests-folder=target/jmh-requests/person-search");
+        personService = context.getBean(PersonService.class);
+        personRepository = context.getBean(PersonRepository.class);
+
+        oibs = new String[people];
+        List<Person> batch = new ArrayList<>(POPULATE_BATCH_SIZE);
+        for (int i = 0; i < people; i++) {
+            oibs[i] = String.format("%011d", i * 2_654_435_761L % 100_000_000_000L);
+            batch.add(PersonDto.builder()
+                    .oib(oibs[i])
+                    .name("Dorian")
+                    .lastName("Pavetic")
+                    .build()
+                    .toDomain(Status.INACTIVE));
+            if (batch.size() == POPULATE_BATCH_SIZE || i == people - 1) {
+                personRepository.saveAll(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public PersonDto searchPersonByOIB() {
+        return personService.searchPersonByOIB(randomOib());
+    }
+
+    /**
+     * Same lookup bypassing the cache, i.e. cost of every cache miss.
+     */
+    @Benchmark
+    public Person findByOibOrderByIdDesc() {
+        return personRepository.findByOibOrderByIdDesc(randomOib());
+    }
+
+    private String randomOib() {
+        return oibs[ThreadLocalRandom.current().nextInt(oibs.length)];
+    }
+}
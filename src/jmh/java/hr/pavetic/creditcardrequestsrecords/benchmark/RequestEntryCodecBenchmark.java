@@ -0,0 +1,62 @@
+package hr.pavetic.creditcardrequestsrecords.benchmark;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.RequestEntryCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of a single credit card request entry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestEntryCodecBenchmark {
+
+    private PersonDto personDto;
+    private ByteBuffer buffer;
+    private ByteBuffer entry;
+    private ByteBuffer legacyEntry;
+
+    @Setup
+    public void setUp() {
+        personDto = PersonDto.builder()
+                .oib("12345678907")
+                .name("Dorian")
+                .lastName("Pavetić")
+                .status(Status.ACTIVE)
+                .build();
+        buffer = ByteBuffer.allocate(512);
+        entry = RequestEntryCodec.encode(personDto);
+        legacyEntry = ByteBuffer.wrap("Dorian Pavetić 12345678907 ACTIVE".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        buffer.clear();
+        RequestEntryCodec.encode(personDto, buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public PersonDto decode() {
+        return RequestEntryCodec.decode(entry);
+    }
+
+    @Benchmark
+    public Status decodeStatus() {
+        return RequestEntryCodec.decodeStatus(entry);
+    }
+
+    @Benchmark
+    public PersonDto decodeLegacy() {
+        return RequestEntryCodec.decode(legacyEntry);
+    }
+}
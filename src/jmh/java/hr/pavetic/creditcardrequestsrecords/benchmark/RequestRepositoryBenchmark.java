@@ -0,0 +1,152 @@
+package hr.pavetic.creditcardrequestsrecords.benchmark;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.CreditCardRequestRepositoryImpl;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.SegmentedLogCreditCardRequestRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.util.Pair;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Credit card request lookups and writes against requests folder already
+ * holding given number of requests, one per person, half of them active.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestRepositoryBenchmark {
+
+    private static final int POPULATE_BATCH_SIZE = 1000;
+
+    @Param({"1000", "100000", "1000000"})
+    private int existingRequests;
+
+    /**
+     * Storage option - flat, sharded or not indexed requests folder (with or
+     * without OIB filter), or segmented log.
+     */
+    @Param({"files", "files-sharded", "files-no-index", "files-oib-filter", "log"})
+    private String store;
+
+    private Path requestsFolder;
+    private CreditCardRequestRepository repository;
+    private String[] oibs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        requestsFolder = Paths.get("target", "jmh-requests", store + "-" + existingRequests);
+        FileSystemUtils.deleteRecursively(requestsFolder);
+
+        // Populated without index, which is then built at once when repository starts
+        CreditCardRequestRepository populatingRepository = openRepository(false);
+        oibs = new String[existingRequests];
+        List<PersonDto> batch = new ArrayList<>(POPULATE_BATCH_SIZE);
+        for (int i = 0; i < existingRequests; i++) {
+            oibs[i] = oib(i);
+            batch.add(getPersonDto(oibs[i], i % 2 == 0 ? Status.ACTIVE : Status.INACTIVE));
+            if (batch.size() == POPULATE_BATCH_SIZE || i == existingRequests - 1) {
+                populatingRepository.writePersonDtoRequests(batch);
+                batch.clear();
+            }
+        }
+        close(populatingRepository);
+        repository = openRepository(true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        close(repository);
+        FileSystemUtils.deleteRecursively(requestsFolder);
+    }
+
+    @Benchmark
+    public List<Pair<Path, PersonDto>> findActiveRequestsForPerson() {
+        return repository.findActiveRequestsForPerson(randomOib());
+    }
+
+    @Benchmark
+    public boolean isActiveRequestExist() {
+        return repository.isActiveRequestExist(randomOib());
+    }
+
+    /**
+     * Looks up a person who never had a request, as most people requesting a card.
+     */
+    @Benchmark
+    public boolean isActiveRequestExistWithoutRequests() {
+        return repository.isActiveRequestExist(oib(oibs.length + ThreadLocalRandom.current().nextInt(oibs.length)));
+    }
+
+    /**
+     * Writes an inactive request, so active requests found by other benchmarks
+     * remain the same.
+     */
+    @Benchmark
+    public Path writePersonDtoRequest() throws IOException {
+        return repository.writePersonDtoRequest(getPersonDto(randomOib(), Status.INACTIVE));
+    }
+
+    private String randomOib() {
+        return oibs[ThreadLocalRandom.current().nextInt(oibs.length)];
+    }
+
+    /**
+     * Multiplication by number coprime to 10^11 spreads OIBs over all shards, without duplicates.
+     */
+    private static String oib(long i) {
+        return String.format("%011d", i * 2_654_435_761L % 100_000_000_000L);
+    }
+
+    private CreditCardRequestRepository openRepository(boolean started) throws IOException {
+        String folder = requestsFolder.toString();
+        switch (store) {
+            case "log" -> {
+                SegmentedLogCreditCardRequestRepository logRepository = new SegmentedLogCreditCardRequestRepository(
+                        folder, DataSize.ofMegabytes(64), Duration.ofHours(1), Duration.ofMillis(1), 256);
+                logRepository.open();
+                return logRepository;
+            }
+            case "files", "files-sharded", "files-no-index", "files-oib-filter" -> {
+                boolean indexed = store.equals("files") || store.equals("files-sharded");
+                CreditCardRequestRepositoryImpl filesRepository = new CreditCardRequestRepositoryImpl(
+                        folder, store.equals("files-sharded") ? 2 : 0, started && indexed, Duration.ZERO, 4,
+                        Duration.ofMillis(1), 256, store.equals("files-oib-filter"), existingRequests, 0.01, new SimpleMeterRegistry());
+                filesRepository.start();
+                return filesRepository;
+            }
+            default -> throw new IllegalArgumentException("Unknown store: " + store);
+        }
+    }
+
+    private static void close(CreditCardRequestRepository repository) throws IOException {
+        if (repository instanceof SegmentedLogCreditCardRequestRepository logRepository)
+            logRepository.close();
+        else if (repository instanceof CreditCardRequestRepositoryImpl filesRepository)
+            filesRepository.close();
+    }
+
+    private static PersonDto getPersonDto(String oib, Status status) {
+        return PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(status)
+                .build();
+    }
+}
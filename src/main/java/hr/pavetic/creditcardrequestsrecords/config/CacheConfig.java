@@ -0,0 +1,36 @@
+package hr.pavetic.creditcardrequestsrecords.config;
+
+import com.github.benmanes.caffeine.cache.CaffeineSpec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    /**
+     * Cache of {@link hr.pavetic.creditcardrequestsrecords.dto.PersonDto} by OIB,
+     * including people which do not exist. Must be evicted on every change of the
+     * person, including its status.
+     */
+    public static final String PERSONS_CACHE = "persons";
+
+    /**
+     * @param personCacheSpec Caffeine specification of {@link #PERSONS_CACHE},
+     *                        bounding its size and entry lifetime. Hit, miss and eviction
+     *                        stats are exported as cache metrics if {@code recordStats} is set.
+     */
+    @Bean
+    public CacheManager cacheManager(@Value("${person-cache-spec}") String personCacheSpec) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(PERSONS_CACHE);
+        cacheManager.setCaffeineSpec(CaffeineSpec.parse(personCacheSpec));
+        // Evictions within a transaction are applied once it commits, so evicted
+        // entry is not reloaded with data the transaction is about to change
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+}
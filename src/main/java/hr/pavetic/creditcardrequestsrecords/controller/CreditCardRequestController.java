@@ -1,16 +1,27 @@
 package hr.pavetic.creditcardrequestsrecords.controller;
 
+import hr.pavetic.creditcardrequestsrecords.dto.CreditCardRequestOutcome;
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.dto.RequestExportFormat;
+import hr.pavetic.creditcardrequestsrecords.service.CreditCardRequestExportService;
 import hr.pavetic.creditcardrequestsrecords.service.CreditCardRequestService;
 import jakarta.validation.Valid;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.Map;
 
 @RequiredArgsConstructor
 @RestController
@@ -19,6 +30,8 @@ public class CreditCardRequestController {
 
     private final CreditCardRequestService creditCardRequestService;
 
+    private final CreditCardRequestExportService creditCardRequestExportService;
+
     @PostMapping
     public ResponseEntity<Boolean> createCreditCardRequest(
             @RequestBody @Valid @NonNull PersonDto personDto) {
@@ -27,10 +40,38 @@ public class CreditCardRequestController {
                 HttpStatus.CREATED);
     }
 
+    /**
+     * Creates credit card requests for all given people at once.
+     *
+     * @return outcome of the request for each given OIB.
+     */
+    @PostMapping("/bulk")
+    public ResponseEntity<Map<String, CreditCardRequestOutcome>> createCreditCardRequests(
+            @RequestBody @NonNull List<String> oibs) {
+        return ResponseEntity.ok(creditCardRequestService.createCreditCardRequests(oibs));
+    }
+
     @PostMapping("/complete")
     public ResponseEntity<String> completeCreditCardRequest(
             @RequestBody @Valid @NonNull PersonDto personDto) {
         return ResponseEntity.ok(creditCardRequestService
                 .completeCreditCardRequest(personDto));
     }
+
+    /**
+     * Streams all active credit card requests as newline delimited JSON or
+     * CSV. Response is written while requests are read, so its size is not
+     * limited by memory, and is compressed if client accepts gzip.
+     */
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportActiveCreditCardRequests(
+            @RequestParam(defaultValue = "NDJSON") @NonNull RequestExportFormat format) {
+        ContentDisposition attachment = ContentDisposition.attachment()
+                .filename("active-credit-card-requests." + format.getFileExtension())
+                .build();
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, attachment.toString())
+                .body(output -> creditCardRequestExportService.exportActiveCreditCardRequests(format, output));
+    }
 }
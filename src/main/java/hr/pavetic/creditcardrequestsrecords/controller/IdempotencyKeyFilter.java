@@ -0,0 +1,244 @@
+package hr.pavetic.creditcardrequestsrecords.controller;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+
+/**
+ * Makes retried POST requests carrying the {@value #IDEMPOTENCY_KEY_HEADER}
+ * header idempotent. Response to the first request with given key is kept,
+ * and returned to its retries as it is (marked by the {@value #REPLAYED_HEADER}
+ * header), without handling them again. Retry arriving while the first request
+ * is still being handled is rejected with {@code 409 Conflict}. Request with
+ * the same key but a different body is not a retry - it is rejected with
+ * {@code 422 Unprocessable Entity}, as the key was reused by mistake.
+ * <p>
+ * Keys are scoped by request path, and by the authenticated user if there is
+ * one. Responses are kept in memory of this instance, along with SHA-256 hash
+ * of the request body, bounded by their total size and expiring after
+ * configured time. Server errors are not kept, so that such requests are
+ * handled again.
+ *
+ * @implNote Only responses written while handling the request are kept -
+ * error pages rendered by the container, and asynchronously written responses,
+ * are not. None of the POST endpoints produces them for a handled request.
+ */
+@Log4j2
+@Component
+public class IdempotencyKeyFilter extends OncePerRequestFilter {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    /**
+     * Approximate size of a kept response besides its key and body.
+     */
+    private static final int RESPONSE_OVERHEAD_BYTES = 128;
+
+    /**
+     * Response of the request.
+     *
+     * @param requestHash hash of the request body.
+     * @param status      HTTP status code, {@code 0} while the request is being handled.
+     * @param contentType content type of the body, if any.
+     * @param body        response body.
+     */
+    private record StoredResponse(@NonNull byte[] requestHash, int status, @Nullable String contentType,
+                                  @NonNull byte[] body) {
+        static StoredResponse inProgress(@NonNull byte[] requestHash) {
+            return new StoredResponse(requestHash, 0, null, new byte[0]);
+        }
+
+        boolean isInProgress() {
+            return status == 0;
+        }
+    }
+
+    /**
+     * Keyed by user (if authenticated), request path and idempotency key.
+     */
+    private final Cache<String, StoredResponse> responses;
+
+    /**
+     * @param cacheSize maximum total size of kept responses.
+     * @param expiry    time after which kept response is discarded,
+     *                  and a request with the same key is handled again.
+     */
+    public IdempotencyKeyFilter(@Value("${idempotency-key-cache-size:64MB}") DataSize cacheSize,
+                                @Value("${idempotency-key-expiry:24h}") Duration expiry,
+                                MeterRegistry meterRegistry) {
+        this.responses = Caffeine.newBuilder()
+                .maximumWeight(cacheSize.toBytes())
+                .<String, StoredResponse>weigher((key, response) ->
+                        key.length() * Character.BYTES + response.requestHash().length + response.body().length
+                                + RESPONSE_OVERHEAD_BYTES)
+                .expireAfterWrite(expiry)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, responses, "idempotency");
+    }
+
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return !HttpMethod.POST.matches(request.getMethod()) || request.getHeader(IDEMPOTENCY_KEY_HEADER) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response,
+                                    @NonNull FilterChain filterChain) throws ServletException, IOException {
+        String idempotencyKey = request.getHeader(IDEMPOTENCY_KEY_HEADER);
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(),
+                    IDEMPOTENCY_KEY_HEADER + " must have between 1 and " + MAX_KEY_LENGTH + " characters");
+            return;
+        }
+
+        String key = request.getRequestURI() + ' ' + idempotencyKey;
+        if (request.getRemoteUser() != null)
+            key = request.getRemoteUser() + ' ' + key;
+        // Body is read up front to be hashed, and handed over to the handler from memory
+        BufferedBodyRequest bufferedRequest = new BufferedBodyRequest(request);
+        byte[] requestHash = sha256(bufferedRequest.body);
+        StoredResponse inProgress = StoredResponse.inProgress(requestHash);
+        StoredResponse storedResponse = responses.get(key, newKey -> inProgress);
+        if (storedResponse != inProgress) {
+            if (!MessageDigest.isEqual(storedResponse.requestHash(), requestHash)) {
+                response.sendError(HttpStatus.UNPROCESSABLE_ENTITY.value(),
+                        IDEMPOTENCY_KEY_HEADER + " was already used for a request with a different body");
+                return;
+            }
+            if (storedResponse.isInProgress()) {
+                response.sendError(HttpStatus.CONFLICT.value(),
+                        "Request with the same " + IDEMPOTENCY_KEY_HEADER + " is still being handled");
+                return;
+            }
+            log.info("Replaying response of {} request with {} [{}]", request.getRequestURI(),
+                    IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+            replay(storedResponse, response);
+            return;
+        }
+
+        ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+        boolean stored = false;
+        try {
+            filterChain.doFilter(bufferedRequest, responseWrapper);
+            if (isStorable(bufferedRequest, responseWrapper)) {
+                responses.put(key, new StoredResponse(requestHash, responseWrapper.getStatus(),
+                        responseWrapper.getContentType(), responseWrapper.getContentAsByteArray()));
+                stored = true;
+            }
+        } finally {
+            // Removed so that the retry is handled again, unless entry expired and was replaced meanwhile
+            if (!stored)
+                responses.asMap().computeIfPresent(key, (storedKey, current) -> current == inProgress ? null : current);
+        }
+        responseWrapper.copyBodyToResponse();
+    }
+
+    private static boolean isStorable(@NonNull HttpServletRequest request,
+                                      @NonNull ContentCachingResponseWrapper response) {
+        if (request.isAsyncStarted() || response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value())
+            return false;
+        // Error without a body is rendered by the container afterwards, so it cannot be replayed
+        return response.getStatus() < HttpStatus.BAD_REQUEST.value() || response.getContentSize() > 0;
+    }
+
+    private static void replay(@NonNull StoredResponse storedResponse,
+                               @NonNull HttpServletResponse response) throws IOException {
+        response.setStatus(storedResponse.status());
+        if (storedResponse.contentType() != null)
+            response.setContentType(storedResponse.contentType());
+        response.setHeader(REPLAYED_HEADER, Boolean.TRUE.toString());
+        response.setContentLength(storedResponse.body().length);
+        response.getOutputStream().write(storedResponse.body());
+    }
+
+    @NonNull
+    private static byte[] sha256(@NonNull byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Request whose body is read into memory, and read from there by the handler.
+     */
+    private static class BufferedBodyRequest extends HttpServletRequestWrapper {
+        private final byte[] body;
+
+        BufferedBodyRequest(@NonNull HttpServletRequest request) throws IOException {
+            super(request);
+            this.body = request.getInputStream().readAllBytes();
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+            return new ServletInputStream() {
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(@NonNull byte[] buffer, int offset, int length) {
+                    return input.read(buffer, offset, length);
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException("Request body is already read");
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() throws UnsupportedEncodingException {
+            String encoding = getCharacterEncoding() != null ? getCharacterEncoding() : StandardCharsets.ISO_8859_1.name();
+            return new BufferedReader(new InputStreamReader(getInputStream(), encoding));
+        }
+    }
+}
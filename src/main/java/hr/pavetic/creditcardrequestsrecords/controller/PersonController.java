@@ -1,15 +1,20 @@
 package hr.pavetic.creditcardrequestsrecords.controller;
 
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonImportResultDto;
 import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.service.PersonImportService;
 import hr.pavetic.creditcardrequestsrecords.service.PersonService;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.InputStream;
+
 @RequiredArgsConstructor
 @RestController
 @RequestMapping("/v1/person")
@@ -17,6 +22,8 @@ public class PersonController {
 
     private final PersonService personService;
 
+    private final PersonImportService personImportService;
+
     @PostMapping
     public ResponseEntity<Person> createPerson(
             @RequestBody @Valid @NonNull PersonDto createPersonDto) {
@@ -25,6 +32,16 @@ public class PersonController {
                 HttpStatus.CREATED);
     }
 
+    /**
+     * Imports people from JSON array or newline delimited JSON body, which
+     * is read as a stream, so batch size is not limited by memory.
+     */
+    @PostMapping(path = "/batch",
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<PersonImportResultDto> importPersons(@NonNull InputStream persons) {
+        return ResponseEntity.ok(personImportService.importPersons(persons));
+    }
+
     @GetMapping
     public ResponseEntity<PersonDto> searchPersonByOIB(
             @RequestParam @NonNull String oib) {
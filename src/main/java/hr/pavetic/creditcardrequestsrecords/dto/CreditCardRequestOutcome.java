@@ -0,0 +1,11 @@
+package hr.pavetic.creditcardrequestsrecords.dto;
+
+/**
+ * Outcome of a credit card request submitted in bulk, per person.
+ */
+public enum CreditCardRequestOutcome {
+    CREATED,
+    ALREADY_ACTIVE,
+    PERSON_NOT_FOUND,
+    INVALID_OIB
+}
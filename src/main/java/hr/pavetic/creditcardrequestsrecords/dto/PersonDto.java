@@ -18,6 +18,7 @@ import java.io.Serializable;
 public class PersonDto implements Serializable {
     @NotBlank(message = "OIB cannot be null or blank")
     @Size(min = 11, max = 11, message = "OIB must contain exactly 11 digits")
+    @Pattern(regexp = "\\d*", message = "OIB must contain exactly 11 digits")
     private String oib;
 
     @NotBlank(message = "Name cannot be null or blank")
@@ -0,0 +1,44 @@
+package hr.pavetic.creditcardrequestsrecords.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a batch person import. Records are either created or rejected,
+ * where each rejected record is reported with its reason.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@Builder
+public class PersonImportResultDto implements Serializable {
+    private long created;
+
+    private long rejected;
+
+    @Builder.Default
+    private List<RejectedPerson> rejectedPersons = new ArrayList<>();
+
+    /**
+     * Single record which could not be imported.
+     */
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class RejectedPerson implements Serializable {
+        /**
+         * Zero-based position of the record within the batch.
+         */
+        private long index;
+
+        private String oib;
+
+        private String reason;
+    }
+}
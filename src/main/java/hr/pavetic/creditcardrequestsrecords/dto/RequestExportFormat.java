@@ -0,0 +1,18 @@
+package hr.pavetic.creditcardrequestsrecords.dto;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+
+/**
+ * Format of exported credit card requests, one request per line.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum RequestExportFormat {
+    NDJSON(MediaType.APPLICATION_NDJSON, "ndjson"),
+    CSV(new MediaType("text", "csv"), "csv");
+
+    private final MediaType mediaType;
+    private final String fileExtension;
+}
@@ -0,0 +1,155 @@
+package hr.pavetic.creditcardrequestsrecords.migration;
+
+import hr.pavetic.creditcardrequestsrecords.repository.impl.RequestFolderLayout;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Offline tool which moves credit card request files of the requests
+ * folder into given {@link RequestFolderLayout} (e.g. flat folder into
+ * sharded one). Application must not be running while migrating.
+ * <p>
+ * Every file is moved with a single atomic rename, so migration can be
+ * interrupted at any time and simply restarted - files already in place
+ * are skipped. If a file with the same name already exists at the target
+ * location with different content, source file is left untouched and
+ * reported, so no request is ever lost.
+ * <p>
+ * Usage (from the packaged application):
+ * <pre>
+ * java -cp credit-card-requests-records.jar \
+ *     -Dloader.main=hr.pavetic.creditcardrequestsrecords.migration.RequestFolderMigration \
+ *     org.springframework.boot.loader.PropertiesLauncher &lt;requests-folder&gt; &lt;requests-shard-depth&gt;
+ * </pre>
+ */
+@Log4j2
+@RequiredArgsConstructor
+public class RequestFolderMigration {
+
+    /**
+     * Outcome of the migration.
+     *
+     * @param moved     number of files moved into their shard folder.
+     * @param skipped   number of files which were already in place.
+     * @param conflicts number of files left in place due to conflicting target file.
+     */
+    public record Result(long moved, long skipped, long conflicts) {
+    }
+
+    private final RequestFolderLayout targetLayout;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: RequestFolderMigration <requests-folder> <requests-shard-depth>");
+            System.exit(1);
+        }
+        RequestFolderLayout layout = new RequestFolderLayout(Paths.get(args[0]), Integer.parseInt(args[1]));
+        Result result = new RequestFolderMigration(layout).migrate();
+        log.info("Request folder migration finished: {}", result);
+        if (result.conflicts() > 0)
+            System.exit(2);
+    }
+
+    /**
+     * Moves all request files under requests folder into their shard folder.
+     *
+     * @return outcome of the migration.
+     */
+    @NonNull
+    public Result migrate() throws IOException {
+        Path requestsFolder = targetLayout.getRequestsFolder();
+        if (!Files.isDirectory(requestsFolder))
+            return new Result(0, 0, 0);
+
+        long moved = 0;
+        long skipped = 0;
+        long conflicts = 0;
+        List<Path> sourceFolders = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(requestsFolder)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (Files.isDirectory(path)) {
+                    sourceFolders.add(path);
+                    continue;
+                }
+                String oib = RequestFolderLayout.oibFromFileName(path.getFileName().toString());
+                if (oib == null)
+                    continue;
+                if (targetLayout.isInPlace(path)) {
+                    skipped++;
+                    continue;
+                }
+
+                if (move(path, targetLayout.requestPath(oib, path.getFileName().toString())))
+                    moved++;
+                else
+                    conflicts++;
+                if ((moved + conflicts) % 100_000 == 0)
+                    log.info("Request folder migration progress: {} moved, {} conflicts", moved, conflicts);
+            }
+        }
+
+        deleteEmptyFolders(sourceFolders);
+        return new Result(moved, skipped, conflicts);
+    }
+
+    /**
+     * Moves request file to its target path.
+     *
+     * @return {@code false} if file could not be moved due to conflicting target file.
+     */
+    private boolean move(@NonNull Path source, @NonNull Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        if (Files.exists(target)) {
+            // Could be left over from a copy-based move which was interrupted before deleting source
+            if (Files.mismatch(source, target) == -1) {
+                Files.delete(source);
+                return true;
+            }
+            log.error("Cannot migrate {} - different request file already exists at {}", source, target);
+            return false;
+        }
+
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different file store - copy into temporary file first, so target is never partially
+            // written and source is deleted only once target is complete
+            Path temporaryTarget = target.resolveSibling(target.getFileName() + ".migrating");
+            Files.copy(source, temporaryTarget,
+                    StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporaryTarget, target, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(source);
+        }
+        return true;
+    }
+
+    /**
+     * Deletes source folders which are not part of the target layout and were
+     * left empty by the migration (e.g. when migrating to lower shard depth).
+     */
+    private void deleteEmptyFolders(@NonNull List<Path> folders) throws IOException {
+        List<Path> deepestFirst = folders.stream()
+                .sorted(Comparator.comparingInt(Path::getNameCount).reversed())
+                .toList();
+        for (Path folder : deepestFirst) {
+            if (targetLayout.isLayoutFolder(folder))
+                continue;
+            try (Stream<Path> content = Files.list(folder)) {
+                if (content.findAny().isEmpty())
+                    Files.delete(folder);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package hr.pavetic.creditcardrequestsrecords.model;
+
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+/**
+ * OIB (personal identification number) packed into a {@code long}. Used as
+ * key of in-memory structures holding many people, where it takes 24 bytes
+ * instead of about 56 of an 11 character {@link String}, and is hashed and
+ * compared without walking its characters. Structures holding every person
+ * use {@link #pack(CharSequence) packed} primitive keys instead, which take
+ * only 8 bytes.
+ * <p>
+ * Packing only requires 11 digits, check digit is not verified.
+ *
+ * @param value OIB digits as a number, leading zeros included.
+ */
+public record Oib(long value) {
+
+    public static final int LENGTH = 11;
+
+    /**
+     * Packed value of a malformed OIB, see {@link #pack(CharSequence)}.
+     */
+    public static final long INVALID = -1;
+
+    private static final long MAX_VALUE = 99_999_999_999L;
+
+    public Oib {
+        if (value < 0 || value > MAX_VALUE)
+            throw new IllegalArgumentException("OIB must contain exactly " + LENGTH + " digits: " + value);
+    }
+
+    /**
+     * @param oib OIB of exactly 11 digits.
+     * @return packed OIB.
+     * @throws IllegalArgumentException if OIB is not exactly 11 digits.
+     */
+    @NonNull
+    public static Oib of(@NonNull CharSequence oib) {
+        long value = pack(oib);
+        if (value == INVALID)
+            throw new IllegalArgumentException("OIB must contain exactly " + LENGTH + " digits: " + oib);
+        return new Oib(value);
+    }
+
+    /**
+     * @param oib OIB to parse, possibly malformed.
+     * @return packed OIB, or {@code null} if it is not exactly 11 digits.
+     */
+    @Nullable
+    public static Oib parse(@Nullable CharSequence oib) {
+        long value = pack(oib);
+        return value == INVALID ? null : new Oib(value);
+    }
+
+    /**
+     * Packs OIB into a primitive {@code long}, without allocating.
+     *
+     * @param oib OIB to pack, possibly malformed.
+     * @return packed OIB, or {@link #INVALID} if it is not exactly 11 digits.
+     */
+    public static long pack(@Nullable CharSequence oib) {
+        if (oib == null || oib.length() != LENGTH)
+            return INVALID;
+        long value = 0;
+        for (int i = 0; i < LENGTH; i++) {
+            char digit = oib.charAt(i);
+            if (digit < '0' || digit > '9')
+                return INVALID;
+            value = value * 10 + (digit - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return OIB as 11 digits, with leading zeros.
+     */
+    @NonNull
+    @Override
+    public String toString() {
+        String digits = Long.toString(value);
+        return "0".repeat(LENGTH - digits.length()) + digits;
+    }
+}
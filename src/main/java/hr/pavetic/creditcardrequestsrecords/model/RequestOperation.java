@@ -0,0 +1,15 @@
+package hr.pavetic.creditcardrequestsrecords.model;
+
+/**
+ * Operation on credit card requests of a person, pending in the request outbox.
+ */
+public enum RequestOperation {
+    /**
+     * Creates new active request, unless person already has one.
+     */
+    CREATE,
+    /**
+     * Deactivates all active requests of the person.
+     */
+    DEACTIVATE
+}
@@ -0,0 +1,84 @@
+package hr.pavetic.creditcardrequestsrecords.model;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.lang.NonNull;
+
+import java.time.Instant;
+
+/**
+ * Operation on credit card requests, written in the same transaction as the
+ * {@link Person} status change it belongs to, and applied to the request
+ * repository afterwards. Entries are applied in order of their IDs.
+ * <p>
+ * Entry which could not be applied is retried later, at {@link #getNextAttemptAt()},
+ * and until then no later entry of the same person is applied. Entry is never
+ * given up on, as the request repository would no longer match person statuses.
+ */
+@Entity
+@Table(name = "RequestOutbox")
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+public class RequestOutboxEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "request_outbox_id")
+    // Allocated in blocks matching the sequence increment, so entries can be inserted in batches
+    @SequenceGenerator(name = "request_outbox_id", sequenceName = "RequestOutbox_seq", allocationSize = 50)
+    private Long id;
+    private String oib;
+    private String name;
+    private String lastName;
+
+    @Enumerated(EnumType.STRING)
+    private RequestOperation operation;
+
+    private Instant createdAt;
+    private int attempts;
+    private Instant nextAttemptAt;
+
+    @NonNull
+    public static RequestOutboxEntry create(@NonNull PersonDto personDto) {
+        RequestOutboxEntry entry = new RequestOutboxEntry();
+        entry.setOib(personDto.getOib());
+        entry.setName(personDto.getName());
+        entry.setLastName(personDto.getLastName());
+        entry.setOperation(RequestOperation.CREATE);
+        entry.setCreatedAt(Instant.now());
+        return entry;
+    }
+
+    @NonNull
+    public static RequestOutboxEntry deactivate(@NonNull String oib) {
+        RequestOutboxEntry entry = new RequestOutboxEntry();
+        entry.setOib(oib);
+        entry.setOperation(RequestOperation.DEACTIVATE);
+        entry.setCreatedAt(Instant.now());
+        return entry;
+    }
+
+    /**
+     * @return request to create by {@link RequestOperation#CREATE} entry.
+     */
+    @NonNull
+    public PersonDto toPersonDto() {
+        return PersonDto.builder()
+                .oib(oib)
+                .name(name)
+                .lastName(lastName)
+                .status(Status.ACTIVE)
+                .build();
+    }
+}
@@ -1,15 +1,32 @@
 package hr.pavetic.creditcardrequestsrecords.repository;
 
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
 import org.springframework.data.util.Pair;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 public interface CreditCardRequestRepository {
+    /**
+     * Name of the timer of repository methods, tagged by class and method.
+     */
+    String TIMER_NAME = "requests.repository";
+
+    /**
+     * Visitor of requests walked by {@link #forEachActiveRequest(RequestVisitor)}.
+     */
+    @FunctionalInterface
+    interface RequestVisitor {
+        void visit(@NonNull Path requestPath, @NonNull PersonDto personDto) throws IOException;
+    }
+
     @NonNull
     Path writePersonDtoRequest(
             @NonNull Path requestPath, @NonNull PersonDto personDto) throws IOException;
@@ -17,11 +34,76 @@ public interface CreditCardRequestRepository {
     @NonNull
     Path writePersonDtoRequest(@NonNull PersonDto personDto) throws IOException;
 
+    /**
+     * Writes new requests of all given people in a single grouped pass.
+     *
+     * @param personDtos entries of new requests, at most one per person.
+     * @return paths of written requests, in order of given entries.
+     */
+    @NonNull
+    List<Path> writePersonDtoRequests(@NonNull List<PersonDto> personDtos) throws IOException;
+
     @NonNull
     List<Pair<Path, PersonDto>> findActiveRequestsForPerson(@NonNull String oib);
 
     @NonNull
     File[] findRequestFilesForPerson(@NonNull String oib);
 
+    /**
+     * Deactivates all active requests of the person in a single pass. Only
+     * status of each request is changed, the rest of its entry is not rewritten.
+     *
+     * @param oib OIB of the person.
+     * @return paths of deactivated requests.
+     */
+    @NonNull
+    List<Path> deactivateActiveRequests(@NonNull String oib) throws IOException;
+
+    /**
+     * Checks whether person has an active request. Only status of requests
+     * is read, and only until the first active request is found.
+     *
+     * @param oib OIB of the person.
+     * @return whether person has an active request.
+     */
     boolean isActiveRequestExist(@NonNull String oib);
+
+    /**
+     * Counts active requests of the person. Only status of requests is read.
+     *
+     * @param oib OIB of the person.
+     * @return number of person's active requests.
+     */
+    int countActiveRequests(@NonNull String oib);
+
+    /**
+     * Finds the most recently created request of the person. Only status
+     * of that request is read.
+     *
+     * @param oib OIB of the person.
+     * @return path and status of the latest request, or {@code null} if
+     * person has no requests.
+     */
+    @Nullable
+    Pair<Path, Status> findLatestRequest(@NonNull String oib);
+
+    /**
+     * Bulk variant of {@link #isActiveRequestExist(String)}.
+     *
+     * @param oibs OIBs of people to check.
+     * @return those of given OIBs which have an active request.
+     */
+    @NonNull
+    Set<String> findOibsWithActiveRequest(@NonNull Collection<String> oibs);
+
+    /**
+     * Visits active requests of all people in a single pass over the store.
+     * Requests are not collected, so memory used does not grow with their
+     * number. Requests written or deactivated during the pass may or may not
+     * be visited.
+     *
+     * @param visitor visitor of each active request, exception thrown by
+     *                it stops the pass.
+     */
+    void forEachActiveRequest(@NonNull RequestVisitor visitor) throws IOException;
 }
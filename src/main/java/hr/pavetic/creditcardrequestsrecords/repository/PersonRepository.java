@@ -11,6 +11,8 @@ import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+
 @Repository
 public interface PersonRepository extends JpaRepository<Person, String> {
     @Query("select count(p) from Person p where p.oib = ?1 and p.status = 'ACTIVE'")
@@ -25,6 +27,11 @@ public interface PersonRepository extends JpaRepository<Person, String> {
     @Query("update Person p set p.status = :status where p.oib = :oib")
     int updateStatusByOib(@NonNull @Param("status") Status status, @NonNull @Param("oib") String oib);
 
+    @Transactional
+    @Modifying
+    @Query("update Person p set p.status = :status where p.oib in :oibs")
+    int updateStatusByOibIn(@NonNull @Param("status") Status status, @NonNull @Param("oibs") Collection<String> oibs);
+
     @Transactional
     @Modifying
     @Query("delete from Person p where p.oib = ?1")
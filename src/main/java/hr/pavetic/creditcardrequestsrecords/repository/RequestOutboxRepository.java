@@ -0,0 +1,49 @@
+package hr.pavetic.creditcardrequestsrecords.repository;
+
+import hr.pavetic.creditcardrequestsrecords.model.RequestOperation;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOutboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface RequestOutboxRepository extends JpaRepository<RequestOutboxEntry, Long> {
+    /**
+     * Returns oldest pending entries which can be applied at given time - an entry
+     * waiting for retry holds back all later entries of the same person.
+     *
+     * @return entries, in order they are applied.
+     */
+    @Query("""
+            select e from RequestOutboxEntry e
+            where not exists (select d from RequestOutboxEntry d
+                              where d.oib = e.oib and d.id <= e.id and d.nextAttemptAt > :now)
+            order by e.id""")
+    @NonNull
+    List<RequestOutboxEntry> findPending(@NonNull @Param("now") Instant now, @NonNull Pageable pageable);
+
+    /**
+     * Counts entries which failed at least given number of attempts.
+     */
+    long countByAttemptsGreaterThanEqual(int attempts);
+
+    @Query("select min(e.createdAt) from RequestOutboxEntry e")
+    @Nullable
+    Instant findOldestCreatedAt();
+
+    @Query("select e.operation from RequestOutboxEntry e where e.oib = ?1 order by e.id")
+    @NonNull
+    List<RequestOperation> findPendingOperations(@NonNull String oib);
+
+    @Query("select e from RequestOutboxEntry e where e.oib in :oibs order by e.id")
+    @NonNull
+    List<RequestOutboxEntry> findPendingByOibIn(@NonNull @Param("oibs") Collection<String> oibs);
+}
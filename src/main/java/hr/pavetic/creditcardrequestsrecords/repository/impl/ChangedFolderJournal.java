@@ -0,0 +1,119 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Journal of folders whose request files were changed after the
+ * {@link RequestIndexSnapshot} with the same watermark was written.
+ * Folder is appended and synced before the first change of its files,
+ * so after a crash only journaled folders have to be listed again.
+ *
+ * @implNote File layout: {@code int magic, long watermark}, followed by
+ * {@code UTF path} of each folder, relative to the requests folder. Entry
+ * torn by a crash is ignored, as no file of its folder was changed yet.
+ */
+public final class ChangedFolderJournal implements Closeable {
+
+    private static final int FILE_MAGIC = 0x52494a4c;
+
+    private final Path requestsFolder;
+    private final FileChannel channel;
+
+    private ChangedFolderJournal(@NonNull Path requestsFolder, @NonNull FileChannel channel) {
+        this.requestsFolder = requestsFolder;
+        this.channel = channel;
+    }
+
+    /**
+     * Starts new journal for the snapshot, atomically replacing existing one.
+     *
+     * @param file           journal file.
+     * @param requestsFolder folder paths are relative to.
+     * @param watermark      watermark of the snapshot the journal belongs to.
+     * @param folders        folders already changed after the snapshot.
+     * @return journal open for appending.
+     */
+    @NonNull
+    public static ChangedFolderJournal create(@NonNull Path file, @NonNull Path requestsFolder, long watermark,
+                                              @NonNull Collection<Path> folders) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel tempChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(FILE_MAGIC);
+            output.writeLong(watermark);
+            for (Path folder : folders)
+                output.writeUTF(requestsFolder.relativize(folder).toString());
+            writeFully(tempChannel, ByteBuffer.wrap(bytes.toByteArray()));
+            tempChannel.force(false);
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return new ChangedFolderJournal(requestsFolder,
+                FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * @param file           journal file.
+     * @param requestsFolder folder paths are resolved against.
+     * @param watermark      watermark of the snapshot the journal has to belong to.
+     * @return journaled folders, or {@code null} if there is no valid journal for the snapshot.
+     */
+    @Nullable
+    public static Set<Path> read(@NonNull Path file, @NonNull Path requestsFolder, long watermark) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream))) {
+            if (input.readInt() != FILE_MAGIC || input.readLong() != watermark)
+                return null;
+            Set<Path> folders = new HashSet<>();
+            try {
+                while (true)
+                    folders.add(requestsFolder.resolve(input.readUTF()));
+            } catch (EOFException e) {
+                return folders;
+            }
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Appends the folder and syncs the journal.
+     */
+    public void append(@NonNull Path folder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(requestsFolder.relativize(folder).toString());
+        writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()));
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+}
@@ -1,45 +1,231 @@
 package hr.pavetic.creditcardrequestsrecords.repository.impl;
 
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Oib;
 import hr.pavetic.creditcardrequestsrecords.model.Status;
 import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.util.Pair;
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
-import org.springframework.util.StringUtils;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-@RequiredArgsConstructor
+@Log4j2
 @Component
+@ConditionalOnProperty(name = "requests-store", havingValue = "files", matchIfMissing = true)
+@Timed(CreditCardRequestRepository.TIMER_NAME)
 public class CreditCardRequestRepositoryImpl implements CreditCardRequestRepository {
 
     /**
-     * Folder where all credit card requests are persisted.
+     * File of the OIB filter in requests folder - not a request file, so it is
+     * ignored by lookups and migration.
      */
-    @Value("${requests-folder}")
-    private final String requestsFolder;
+    private static final String OIB_FILTER_FILE_NAME = "oibs.bloom";
+
+    /**
+     * Folders cannot be opened for syncing on Windows, where creating a file is
+     * durable once the file itself is synced.
+     */
+    private static final boolean FOLDER_SYNC_SUPPORTED =
+            !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
+    /**
+     * Reusable per-thread buffer entries are encoded into before written.
+     */
+    private static final ThreadLocal<ByteBuffer> ENTRY_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(512));
+
+    /**
+     * Reusable per-thread buffer request files are read into before parsed.
+     */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(512));
+
+    /**
+     * Layout of the folder where all credit card requests are persisted.
+     */
+    private final RequestFolderLayout layout;
+
+    /**
+     * OIB index of request files - avoids listing whole requests
+     * folder on every lookup. {@code null} if index is disabled,
+     * in which case person's shard folder is listed on every lookup.
+     */
+    @Nullable
+    private final RequestFileIndex requestFileIndex;
+
+    /**
+     * Bloom filter of OIBs having a request file - lets lookups of people
+     * without any request skip listing their folder. {@code null} if disabled,
+     * or if index is enabled, as the index answers such lookups from memory.
+     * Saved into requests folder on shutdown and loaded on startup, unless
+     * requests folder was changed meanwhile, in which case it is rebuilt.
+     */
+    @Nullable
+    private final OibBloomFilter oibFilter;
+
+    /**
+     * Whether filter holds OIBs of all request files. Until then, lookups do
+     * not consult it, while writes already add to it.
+     */
+    private volatile boolean oibFilterLoaded;
+
+    /**
+     * Reads request files of a person in parallel, so that people with
+     * many past requests are looked up without reading them one by one.
+     */
+    private final ParallelRequestReader requestReader;
+
+    /**
+     * Written request files, synced by the group commit.
+     *
+     * @param files   channels of the written files, closed by their writer once synced.
+     * @param folders folders whose entries were added by the writes.
+     */
+    private record PendingSync(@NonNull List<FileChannel> files, @NonNull Set<Path> folders) {
+    }
+
+    /**
+     * Syncs request files written concurrently with a single pass, so that
+     * each folder is synced once per batch instead of once per write.
+     */
+    private final GroupCommitWriter<PendingSync, Void> groupCommitWriter;
+    private final int groupCommitBatchSize;
+
+    /**
+     * Entries of request folders examined while listing them on lookup.
+     */
+    private final Counter filesScanned;
+    private final Counter filesRead;
+    private final Counter bytesRead;
+    /**
+     * Lookups answered by the OIB filter without listing the folder, and those which
+     * listed it, split by whether person had a request (true or false positive).
+     */
+    private final Counter oibFilterNegatives;
+    private final Counter oibFilterTruePositives;
+    private final Counter oibFilterFalsePositives;
+
+    public CreditCardRequestRepositoryImpl(
+            @Value("${requests-folder}") String requestsFolder,
+            @Value("${requests-shard-depth:0}") int requestsShardDepth,
+            @Value("${requests-index-enabled:true}") boolean requestsIndexEnabled,
+            @Value("${requests-index-snapshot-interval:5m}") Duration requestsIndexSnapshotInterval,
+            @Value("${requests-read-parallelism:4}") int requestsReadParallelism,
+            @Value("${requests-files-group-commit-window:1ms}") Duration groupCommitWindow,
+            @Value("${requests-files-group-commit-batch-size:256}") int groupCommitBatchSize,
+            @Value("${requests-oib-filter-enabled:true}") boolean requestsOibFilterEnabled,
+            @Value("${requests-oib-filter-expected-oibs:1000000}") long requestsOibFilterExpectedOibs,
+            @Value("${requests-oib-filter-false-positive-probability:0.01}") double requestsOibFilterFpp,
+            MeterRegistry meterRegistry) {
+        this.layout = new RequestFolderLayout(Paths.get(requestsFolder), requestsShardDepth);
+        this.requestFileIndex = requestsIndexEnabled
+                ? new RequestFileIndex(layout, path -> readRequest(path, RequestEntryCodec::decodeStatus),
+                        requestsIndexSnapshotInterval)
+                : null;
+        this.oibFilter = !requestsIndexEnabled && requestsOibFilterEnabled
+                ? OibBloomFilter.create(requestsOibFilterExpectedOibs, requestsOibFilterFpp)
+                : null;
+        this.requestReader = new ParallelRequestReader(requestsReadParallelism);
+        this.groupCommitWriter = new GroupCommitWriter<>("request-files-writer", this::syncAll,
+                groupCommitWindow, groupCommitBatchSize);
+        this.groupCommitBatchSize = groupCommitBatchSize;
+        this.filesScanned = Counter.builder("requests.files.scanned")
+                .description("Entries of request folders examined by listing them on lookup")
+                .register(meterRegistry);
+        this.filesRead = Counter.builder("requests.files.read")
+                .description("Request files read")
+                .register(meterRegistry);
+        this.bytesRead = Counter.builder("requests.bytes.read")
+                .description("Bytes of request files read")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.oibFilterNegatives = oibFilterCounter("negative", meterRegistry);
+        this.oibFilterTruePositives = oibFilterCounter("true_positive", meterRegistry);
+        this.oibFilterFalsePositives = oibFilterCounter("false_positive", meterRegistry);
+        if (oibFilter != null)
+            Gauge.builder("requests.oib.filter.fpp", oibFilter, OibBloomFilter::expectedFalsePositiveProbability)
+                    .description("Estimated false positive probability of the request OIB filter")
+                    .register(meterRegistry);
+        Gauge.builder("requests.files", this, CreditCardRequestRepositoryImpl::countRequestFiles)
+                .description("Request files in the requests folder")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Builds request index and starts watching requests folder, so
+     * that requests written by other processes are picked up as well.
+     * Loads or rebuilds the OIB filter, if enabled.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        if (requestFileIndex != null)
+            requestFileIndex.start();
+        if (oibFilter != null)
+            loadOibFilter();
+    }
+
+    /**
+     * Stops watching requests folder and stops request reader threads, once
+     * pending writes are synced. Saves the OIB filter, so it need not be rebuilt
+     * on the next startup.
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        groupCommitWriter.close();
+        requestReader.close();
+        if (requestFileIndex != null)
+            requestFileIndex.close();
+        if (oibFilter != null && oibFilterLoaded) {
+            Path oibFilterFile = oibFilterFile();
+            oibFilter.writeTo(oibFilterFile);
+            // Folder is changed by saving the filter, which must not make it look outdated
+            Files.setLastModifiedTime(oibFilterFile, FileTime.from(Instant.now()));
+        }
+    }
 
     @NonNull
     @Override
     public Path writePersonDtoRequest(
             @NonNull Path requestPath, @NonNull PersonDto personDto) throws IOException {
-        // Ensure folder exists, otherwise IOException would occur if it does not exist
-        Files.createDirectories(Paths.get(requestsFolder));
-
-        byte[] requestEntryBytes = personDtoToRequestEntry(personDto).getBytes();
-        Files.write(requestPath, requestEntryBytes);
+        writeEntries(List.of(requestPath), List.of(personDto));
         return requestPath;
     }
 
@@ -47,73 +233,532 @@ public class CreditCardRequestRepositoryImpl implements CreditCardRequestReposit
     @Override
     public Path writePersonDtoRequest(@NonNull PersonDto personDto) throws IOException {
         String fileName = personDto.getOib() + "_" +
-                Instant.now().toEpochMilli() + ".txt";
-        Path requestPath = Paths.get(requestsFolder, fileName);
+                Instant.now().toEpochMilli() + RequestFolderLayout.REQUEST_FILE_EXTENSION;
+        Path requestPath = layout.requestPath(personDto.getOib(), fileName);
         writePersonDtoRequest(requestPath, personDto);
         return requestPath;
     }
 
+    /**
+     * @implNote Requests are synced in groups of at most the group commit batch
+     * size, so that number of files held open at once is bounded.
+     */
+    @NonNull
+    @Override
+    public List<Path> writePersonDtoRequests(@NonNull List<PersonDto> personDtos) throws IOException {
+        String fileNameSuffix = "_" + Instant.now().toEpochMilli() + RequestFolderLayout.REQUEST_FILE_EXTENSION;
+        List<Path> requestPaths = new ArrayList<>(personDtos.size());
+        for (PersonDto personDto : personDtos)
+            requestPaths.add(layout.requestPath(personDto.getOib(), personDto.getOib() + fileNameSuffix));
+        for (int from = 0; from < personDtos.size(); from += groupCommitBatchSize) {
+            int to = Math.min(from + groupCommitBatchSize, personDtos.size());
+            writeEntries(requestPaths.subList(from, to), personDtos.subList(from, to));
+        }
+        return requestPaths;
+    }
+
     @Override
     public boolean isActiveRequestExist(@NonNull String oib) {
-        return !findActiveRequestsForPerson(oib).isEmpty();
+        Collection<RequestFileIndex.IndexedRequest> indexedRequests = findRequests(oib);
+        if (indexedRequests.stream().anyMatch(request -> request.status() == Status.ACTIVE))
+            return true;
+        // Only requests with unknown status need to be read from disk, until first active one is found
+        List<Path> unknownRequests = indexedRequests.stream()
+                .filter(request -> request.status() == null)
+                .map(RequestFileIndex.IndexedRequest::path)
+                .toList();
+        return requestReader.anyMatch(unknownRequests,
+                path -> readRequest(path, RequestEntryCodec::decodeStatus) == Status.ACTIVE);
+    }
+
+    @Override
+    public int countActiveRequests(@NonNull String oib) {
+        Collection<RequestFileIndex.IndexedRequest> indexedRequests = findRequests(oib);
+        int activeRequests = (int) indexedRequests.stream()
+                .filter(request -> request.status() == Status.ACTIVE)
+                .count();
+        // Only requests with unknown status need to be read from disk
+        List<Path> unknownRequests = indexedRequests.stream()
+                .filter(request -> request.status() == null)
+                .map(RequestFileIndex.IndexedRequest::path)
+                .toList();
+        for (Status status : requestReader.readAll(unknownRequests,
+                path -> readRequest(path, RequestEntryCodec::decodeStatus))) {
+            if (status == Status.ACTIVE)
+                activeRequests++;
+        }
+        return activeRequests;
+    }
+
+    /**
+     * @implNote Requests are ordered by creation time from their file name,
+     * legacy requests without it are considered the oldest.
+     */
+    @Nullable
+    @Override
+    public Pair<Path, Status> findLatestRequest(@NonNull String oib) {
+        return findRequests(oib).stream()
+                .max(Comparator.comparingLong((RequestFileIndex.IndexedRequest request) ->
+                                RequestFolderLayout.createdAtFromFileName(request.path().getFileName().toString()))
+                        .thenComparing(RequestFileIndex.IndexedRequest::path))
+                .map(request -> Pair.of(request.path(), request.status() != null
+                        ? request.status()
+                        : readRequest(request.path(), RequestEntryCodec::decodeStatus)))
+                .orElse(null);
+    }
+
+    @NonNull
+    @Override
+    public Set<String> findOibsWithActiveRequest(@NonNull Collection<String> oibs) {
+        if (requestFileIndex != null)
+            return oibs.stream()
+                    .filter(this::isActiveRequestExist)
+                    .collect(Collectors.toSet());
+
+        // Each (shard) folder is listed only once for all given people which might have a request
+        Map<Path, Set<String>> oibsByFolder = oibs.stream()
+                .filter(this::mightHaveRequests)
+                .collect(Collectors.groupingBy(layout::folderFor, Collectors.toSet()));
+        Set<String> oibsWithRequest = new HashSet<>();
+        Set<String> oibsWithActiveRequest = new HashSet<>();
+        for (Map.Entry<Path, Set<String>> folder : oibsByFolder.entrySet()) {
+            File[] requestFiles = folder.getKey()
+                    .toFile()
+                    .listFiles((dir, name) -> {
+                        filesScanned.increment();
+                        return folder.getValue().contains(RequestFolderLayout.oibFromFileName(name));
+                    });
+            if (requestFiles == null)
+                requestFiles = new File[]{};
+            for (File requestFile : requestFiles) {
+                String oib = RequestFolderLayout.oibFromFileName(requestFile.getName());
+                oibsWithRequest.add(oib);
+                if (!oibsWithActiveRequest.contains(oib) &&
+                        readRequest(requestFile.toPath(), RequestEntryCodec::decodeStatus) == Status.ACTIVE)
+                    oibsWithActiveRequest.add(oib);
+            }
+            for (String oib : folder.getValue())
+                countOibFilterPositive(oib, oibsWithRequest.contains(oib));
+        }
+        return oibsWithActiveRequest;
     }
 
     @NonNull
     @Override
     public List<Pair<Path, PersonDto>> findActiveRequestsForPerson(@NonNull String oib) {
-        File[] matchingFiles = findRequestFilesForPerson(oib);
-        return Arrays.stream(matchingFiles)
-                .map(file -> {
-                    try {
-                        Path path = file.toPath();
-                        List<String> entry = Files.readAllLines(path);
-                        return Pair.of(path, parseRequestEntryToPersonDto(entry));
-                    } catch (IOException e) {
-                        throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                                "There was a problem reading credit card request", e);
-                    }
-                })
-                .filter(pair -> pair.getSecond().getStatus() == Status.ACTIVE)
+        // Inactive requests are known from the index, no need to read them
+        List<Path> requestPaths = findRequests(oib).stream()
+                .filter(request -> request.status() != Status.INACTIVE)
+                .map(RequestFileIndex.IndexedRequest::path)
                 .toList();
+        List<PersonDto> personDtos = requestReader.readAll(requestPaths,
+                path -> readRequest(path, RequestEntryCodec::decodeActive));
+        List<Pair<Path, PersonDto>> activeRequests = new ArrayList<>();
+        for (int i = 0; i < requestPaths.size(); i++) {
+            if (personDtos.get(i) != null)
+                activeRequests.add(Pair.of(requestPaths.get(i), personDtos.get(i)));
+        }
+        return activeRequests;
+    }
+
+    /**
+     * @implNote Status of binary entries is flipped with a single positional write
+     * of the status byte, legacy text entries are re-encoded in binary format.
+     * Requests are written on the calling thread, not on the reader threads, and
+     * synced together by a single group commit.
+     */
+    @NonNull
+    @Override
+    public List<Path> deactivateActiveRequests(@NonNull String oib) {
+        // Inactive requests are known from the index, no need to touch them
+        List<Path> requestPaths = findRequests(oib).stream()
+                .filter(request -> request.status() != Status.INACTIVE)
+                .map(RequestFileIndex.IndexedRequest::path)
+                .toList();
+        List<Path> deactivatedPaths = new ArrayList<>();
+        List<FileChannel> channels = new ArrayList<>();
+        try {
+            try {
+                List<FileChannel> changedChannels = new ArrayList<>();
+                for (Path path : requestPaths) {
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    channels.add(channel);
+                    if (deactivateRequest(path, channel)) {
+                        changedChannels.add(channel);
+                        deactivatedPaths.add(path);
+                    }
+                }
+                if (!changedChannels.isEmpty())
+                    groupCommitWriter.write(new PendingSync(changedChannels, Set.of()));
+            } finally {
+                for (FileChannel channel : channels)
+                    channel.close();
+            }
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "There was a problem updating credit card request status", e);
+        }
+
+        if (requestFileIndex != null) {
+            for (Path path : requestPaths)
+                requestFileIndex.put(path, oib, Status.INACTIVE);
+        }
+        return deactivatedPaths;
+    }
+
+    /**
+     * @implNote Requests are walked from the index if enabled, skipping those known
+     * to be inactive, otherwise requests folder is listed lazily. Request files are
+     * read one at a time, on the calling thread.
+     */
+    @Override
+    public void forEachActiveRequest(@NonNull RequestVisitor visitor) throws IOException {
+        if (requestFileIndex != null) {
+            Iterator<RequestFileIndex.IndexedRequest> requests = requestFileIndex.iterator();
+            while (requests.hasNext()) {
+                RequestFileIndex.IndexedRequest request = requests.next();
+                if (request.status() != Status.INACTIVE)
+                    visitIfActive(request.path(), visitor);
+            }
+            return;
+        }
+        try (Stream<Path> requestFiles = layout.requestFiles()) {
+            Iterator<Path> paths = requestFiles.iterator();
+            while (paths.hasNext()) {
+                filesScanned.increment();
+                visitIfActive(paths.next(), visitor);
+            }
+        }
     }
 
     @NonNull
     @Override
     public File[] findRequestFilesForPerson(@NonNull String oib) {
-        File[] matchingFiles = Paths.get(requestsFolder)
+        if (requestFileIndex != null)
+            return requestFileIndex.findByOib(oib).stream()
+                    .map(request -> request.path().toFile())
+                    .toArray(File[]::new);
+
+        if (!mightHaveRequests(oib))
+            return new File[]{};
+        // Only person's shard folder needs to be listed
+        File[] matchingFiles = layout.folderFor(oib)
                 .toFile()
-                .listFiles((dir, name) ->
-                        name.startsWith(oib) && name.endsWith(".txt"));
+                .listFiles((dir, name) -> {
+                    filesScanned.increment();
+                    return oib.equals(RequestFolderLayout.oibFromFileName(name));
+                });
         if (matchingFiles == null)
-            return new File[]{};
+            matchingFiles = new File[]{};
+        countOibFilterPositive(oib, matchingFiles.length > 0);
         return matchingFiles;
     }
 
+    /**
+     * Finds all requests of the person, with their status if it is known
+     * without reading the request file.
+     */
     @NonNull
-    private PersonDto parseRequestEntryToPersonDto(@NonNull List<String> entryLines) {
-        if (entryLines.isEmpty() || !StringUtils.hasText(entryLines.get(0)))
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                    "Credit card request entry does not contain any information");
+    private Collection<RequestFileIndex.IndexedRequest> findRequests(@NonNull String oib) {
+        if (requestFileIndex != null)
+            return requestFileIndex.findByOib(oib);
+        return Arrays.stream(findRequestFilesForPerson(oib))
+                .map(file -> new RequestFileIndex.IndexedRequest(file.toPath(), null))
+                .toList();
+    }
 
-        String[] values = entryLines.get(0).split(" ");
-        if (values.length != 4)
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                    "Request could not be read properly - malformed entry");
+    private void visitIfActive(@NonNull Path path, @NonNull RequestVisitor visitor) throws IOException {
+        PersonDto personDto = readRequest(path, RequestEntryCodec::decodeActive);
+        if (personDto != null)
+            visitor.visit(path, personDto);
+    }
+
+    /**
+     * Deactivates the request in given file, if it is active. Change is not synced.
+     *
+     * @return whether request was active.
+     */
+    private boolean deactivateRequest(@NonNull Path path, @NonNull FileChannel channel) throws IOException {
+        ByteBuffer entry = readIntoReadBuffer(channel);
+        filesRead.increment();
+        bytesRead.increment(entry.remaining());
+        if (RequestEntryCodec.decodeStatus(entry) != Status.ACTIVE)
+            return false;
+        // Legacy entry is decoded before the read buffer could be reused
+        PersonDto personDto = RequestEntryCodec.isBinary(entry) ? null : RequestEntryCodec.decode(entry);
+        if (requestFileIndex != null)
+            requestFileIndex.trackChange(path);
+        if (personDto == null) {
+            ByteBuffer statusCode = ByteBuffer.allocate(1)
+                    .put(0, RequestEntryCodec.encodeStatus(Status.INACTIVE));
+            while (statusCode.hasRemaining())
+                channel.write(statusCode, RequestEntryCodec.STATUS_OFFSET + statusCode.position());
+        } else {
+            personDto.setStatus(Status.INACTIVE);
+            ByteBuffer encoded = encodeIntoEntryBuffer(personDto);
+            int length = encoded.remaining();
+            while (encoded.hasRemaining())
+                channel.write(encoded, encoded.position());
+            channel.truncate(length);
+        }
+        return true;
+    }
+
+    /**
+     * Counts request files - from the index if enabled, otherwise by walking
+     * requests folder, which gets expensive with many requests.
+     */
+    private double countRequestFiles() {
+        if (requestFileIndex != null)
+            return requestFileIndex.size();
+        try (Stream<Path> requestFiles = layout.requestFiles()) {
+            return requestFiles.count();
+        } catch (IOException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Checks the OIB filter, if enabled and loaded.
+     *
+     * @return {@code false} if person definitely has no request.
+     */
+    private boolean mightHaveRequests(@NonNull String oib) {
+        if (oibFilter == null || !oibFilterLoaded)
+            return true;
+        long packedOib = Oib.pack(oib);
+        // Malformed OIBs are not in the filter, so their folder is always listed
+        if (packedOib == Oib.INVALID || oibFilter.mightContain(packedOib))
+            return true;
+        oibFilterNegatives.increment();
+        return false;
+    }
+
+    /**
+     * Counts lookup which got through the OIB filter, by whether person had a request.
+     */
+    private void countOibFilterPositive(@NonNull String oib, boolean hasRequests) {
+        if (oibFilter == null || !oibFilterLoaded || Oib.pack(oib) == Oib.INVALID)
+            return;
+        (hasRequests ? oibFilterTruePositives : oibFilterFalsePositives).increment();
+    }
+
+    private void addToOibFilter(@Nullable String oib) {
+        if (oibFilter == null)
+            return;
+        long packedOib = Oib.pack(oib);
+        if (packedOib != Oib.INVALID)
+            oibFilter.add(packedOib);
+    }
+
+    /**
+     * Loads the OIB filter saved on the last shutdown, or rebuilds it from request
+     * files if there is none, or if any (shard) folder was changed after it was saved
+     * (e.g. by another process). Saved filter is removed once loaded - after a crash,
+     * filter is rebuilt, as the saved one would miss requests written since.
+     */
+    private void loadOibFilter() throws IOException {
+        Path oibFilterFile = oibFilterFile();
+        OibBloomFilter savedOibFilter = readSavedOibFilter(oibFilterFile);
+        if (savedOibFilter != null && oibFilter.merge(savedOibFilter)) {
+            log.info("Credit card request OIB filter loaded from {}", oibFilterFile);
+        } else {
+            try (Stream<Path> requestFiles = layout.requestFiles()) {
+                requestFiles.forEach(file ->
+                        addToOibFilter(RequestFolderLayout.oibFromFileName(file.getFileName().toString())));
+            }
+            log.info("Credit card request OIB filter rebuilt from {}", layout.getRequestsFolder());
+        }
+        Files.deleteIfExists(oibFilterFile);
+        oibFilterLoaded = true;
+    }
 
-        return PersonDto.builder()
-                .name(values[0])
-                .lastName(values[1])
-                .oib(values[2])
-                .status(Status.parse(values[3]))
-                .build();
+    @Nullable
+    private OibBloomFilter readSavedOibFilter(@NonNull Path oibFilterFile) {
+        if (!Files.isRegularFile(oibFilterFile))
+            return null;
+        try {
+            FileTime savedAt = Files.getLastModifiedTime(oibFilterFile);
+            try (Stream<Path> folders = Files.walk(layout.getRequestsFolder(), layout.getShardDepth())) {
+                for (Path folder : (Iterable<Path>) folders.filter(Files::isDirectory)::iterator) {
+                    if (Files.getLastModifiedTime(folder).compareTo(savedAt) > 0)
+                        return null;
+                }
+            }
+            return OibBloomFilter.readFrom(oibFilterFile);
+        } catch (IOException e) {
+            log.warn("Credit card request OIB filter could not be loaded from {}", oibFilterFile, e);
+            return null;
+        }
     }
 
     @NonNull
-    private String personDtoToRequestEntry(@NonNull PersonDto personDto) {
-        return String.join(" ",
-                personDto.getName(),
-                personDto.getLastName(),
-                personDto.getOib(),
-                personDto.getStatus().name());
+    private Path oibFilterFile() {
+        return layout.getRequestsFolder().resolve(OIB_FILTER_FILE_NAME);
+    }
+
+    @NonNull
+    private static Counter oibFilterCounter(@NonNull String result, @NonNull MeterRegistry meterRegistry) {
+        return Counter.builder("requests.oib.filter")
+                .description("Request lookups by outcome of the OIB filter")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Writes entries into the request files, replacing any existing content, and
+     * waits until the files and their folders are synced by the group commit.
+     * Only then are the requests added to the index, so a found request is durable.
+     */
+    private void writeEntries(@NonNull List<Path> requestPaths, @NonNull List<PersonDto> personDtos)
+            throws IOException {
+        Set<Path> folders = new LinkedHashSet<>();
+        for (Path requestPath : requestPaths) {
+            // Each (shard) folder is ensured only once per batch
+            if (!folders.contains(requestPath.getParent()))
+                ensureFolder(requestPath.getParent(), folders);
+        }
+        if (requestFileIndex != null) {
+            // Existing files are replaced in place, which does not modify their folder
+            for (Path requestPath : requestPaths)
+                requestFileIndex.trackChange(requestPath);
+        }
+
+        List<FileChannel> channels = new ArrayList<>(requestPaths.size());
+        try {
+            for (int i = 0; i < requestPaths.size(); i++) {
+                // Added before the file exists, so the filter never misses a request
+                addToOibFilter(personDtos.get(i).getOib());
+                FileChannel channel = FileChannel.open(requestPaths.get(i), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                channels.add(channel);
+                ByteBuffer entry = encodeIntoEntryBuffer(personDtos.get(i));
+                while (entry.hasRemaining())
+                    channel.write(entry);
+            }
+            groupCommitWriter.write(new PendingSync(channels, folders));
+        } finally {
+            for (FileChannel channel : channels)
+                channel.close();
+        }
+
+        if (requestFileIndex != null) {
+            for (int i = 0; i < requestPaths.size(); i++)
+                requestFileIndex.put(requestPaths.get(i), personDtos.get(i).getOib(), personDtos.get(i).getStatus());
+        }
+    }
+
+    /**
+     * Creates the folder if it does not exist, and adds folders whose entries
+     * are changed by it to given folders - the folder itself, as file is added
+     * to it, and parents of all folders created.
+     */
+    private static void ensureFolder(@NonNull Path folder, @NonNull Set<Path> changedFolders) throws IOException {
+        changedFolders.add(folder);
+        for (Path created = folder.toAbsolutePath(); created.getParent() != null && !Files.isDirectory(created);
+             created = created.getParent())
+            changedFolders.add(created.getParent());
+        // Ensure folder exists, otherwise IOException would occur if it does not exist
+        Files.createDirectories(folder);
+    }
+
+    /**
+     * Syncs the batch of written request files, once for all of them.
+     */
+    @NonNull
+    private List<Void> syncAll(@NonNull List<PendingSync> pendingSyncs) throws IOException {
+        List<FileChannel> files = new ArrayList<>();
+        Set<Path> folders = new LinkedHashSet<>();
+        for (PendingSync pendingSync : pendingSyncs) {
+            files.addAll(pendingSync.files());
+            folders.addAll(pendingSync.folders());
+        }
+        sync(files, folders);
+        return Collections.nCopies(pendingSyncs.size(), null);
+    }
+
+    /**
+     * Forces written request files and then their folders to the storage device.
+     * Called on the group commit thread, once per batch of writes - the writes
+     * are acknowledged to their callers only once this returns.
+     *
+     * @param files   channels of written request files.
+     * @param folders folders whose entries were changed by the writes.
+     */
+    protected void sync(@NonNull List<FileChannel> files, @NonNull Set<Path> folders) throws IOException {
+        for (FileChannel file : files) {
+            try {
+                file.force(false);
+            } catch (ClosedChannelException e) {
+                // Writer stopped waiting for the sync (e.g. was interrupted) and closed the file
+            }
+        }
+        if (!FOLDER_SYNC_SUPPORTED)
+            return;
+        for (Path folder : folders) {
+            try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Encodes entry into the reusable entry buffer of the current thread,
+     * growing the buffer if entry does not fit.
+     *
+     * @return entry buffer, ready to be written.
+     */
+    @NonNull
+    private static ByteBuffer encodeIntoEntryBuffer(@NonNull PersonDto personDto) {
+        ByteBuffer entry = ENTRY_BUFFER.get();
+        int encodedLength = RequestEntryCodec.encodedLength(personDto);
+        if (entry.capacity() < encodedLength) {
+            entry = ByteBuffer.allocate(encodedLength);
+            ENTRY_BUFFER.set(entry);
+        }
+        entry.clear();
+        RequestEntryCodec.encode(personDto, entry);
+        return entry.flip();
+    }
+
+    /**
+     * Reads request file into the per-thread read buffer and parses the entry
+     * from it. Request files are small, so mapping each of them would cost more
+     * than copying it, and would hold the mapping until the buffer is collected.
+     *
+     * @param path   path to the request file.
+     * @param parser parser of the entry, which must not keep the buffer.
+     * @return result of the parser.
+     */
+    private <T> T readRequest(@NonNull Path path, @NonNull Function<ByteBuffer, T> parser) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer entry = readIntoReadBuffer(channel);
+            filesRead.increment();
+            bytesRead.increment(entry.remaining());
+            return parser.apply(entry);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "There was a problem reading credit card request", e);
+        }
+    }
+
+    /**
+     * Reads whole file into the per-thread read buffer, growing the buffer if file does not fit.
+     *
+     * @return read buffer, ready to be parsed.
+     */
+    @NonNull
+    private static ByteBuffer readIntoReadBuffer(@NonNull FileChannel channel) throws IOException {
+        ByteBuffer entry = READ_BUFFER.get();
+        int size = Math.toIntExact(channel.size());
+        if (entry.capacity() < size) {
+            entry = ByteBuffer.allocate(size);
+            READ_BUFFER.set(entry);
+        }
+        entry.clear().limit(size);
+        while (entry.hasRemaining() && channel.read(entry) >= 0) {
+            // File shrunk meanwhile if end is reached early - entry is parsed as it is
+        }
+        return entry.flip();
     }
 }
@@ -0,0 +1,205 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import org.springframework.lang.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writer stage which groups concurrently submitted writes into batches, so
+ * that each batch is made durable at once - e.g. with a single
+ * {@link java.nio.channels.FileChannel#force(boolean)} instead of one per write.
+ * <p>
+ * Single writer thread waits for the first pending write, then keeps collecting
+ * writes submitted within the commit window, up to the maximal batch size, and
+ * commits the whole batch. Each caller is blocked until the batch holding its
+ * write is committed.
+ *
+ * @param <T> type of a single write.
+ * @param <R> type of the result of a single write.
+ */
+public class GroupCommitWriter<T, R> implements Closeable {
+
+    /**
+     * Commits batch of writes.
+     */
+    @FunctionalInterface
+    public interface BatchCommitter<T, R> {
+        /**
+         * Writes all given writes and makes them durable.
+         *
+         * @param writes writes of the batch, in order of submission.
+         * @return results of the writes, in order of given writes.
+         */
+        @NonNull
+        List<R> commit(@NonNull List<T> writes) throws IOException;
+    }
+
+    private record PendingWrite<T, R>(T write, CompletableFuture<R> result) {
+    }
+
+    private final String name;
+    private final BatchCommitter<T, R> committer;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final BlockingQueue<PendingWrite<T, R>> pendingWrites = new LinkedBlockingQueue<>();
+
+    /**
+     * Marks the end of pending writes, once writer is closed.
+     */
+    private final PendingWrite<T, R> closeMarker = new PendingWrite<>(null, null);
+
+    /**
+     * Guards submission of writes against closing, so no write is submitted
+     * after the close marker.
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    private final Thread writerThread;
+
+    /**
+     * Creates writer and starts its writer thread.
+     *
+     * @param name         name of the writer thread.
+     * @param committer    committer of the batches.
+     * @param window       time for which writes are collected after the first
+     *                     write of the batch. With zero window, batch holds only
+     *                     writes submitted while previous batch was committed.
+     * @param maxBatchSize maximal number of writes in a batch.
+     */
+    public GroupCommitWriter(@NonNull String name, @NonNull BatchCommitter<T, R> committer,
+                             @NonNull Duration window, int maxBatchSize) {
+        if (window.isNegative())
+            throw new IllegalArgumentException("Commit window cannot be negative: " + window);
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("Maximal batch size must be positive: " + maxBatchSize);
+        this.name = name;
+        this.committer = committer;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.writerThread = new Thread(this::run, name);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Submits the write and waits until it is committed.
+     *
+     * @param write write to commit.
+     * @return result of the write.
+     * @throws IOException if commit of the batch holding the write failed, or
+     *                     if writer is closed.
+     * @throws InterruptedIOException if interrupted while waiting - write
+     *                                may still be committed afterwards.
+     */
+    public R write(@NonNull T write) throws IOException {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        closeLock.readLock().lock();
+        try {
+            if (closed)
+                throw new IOException(name + " is closed");
+            pendingWrites.add(new PendingWrite<>(write, result));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new IOException("Write could not be committed by " + name, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for write to be committed by " + name);
+        }
+    }
+
+    /**
+     * Commits all pending writes and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            pendingWrites.add(closeMarker);
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+
+        // Writer thread is not interrupted, as it would close the channel it is writing to
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void run() {
+        List<PendingWrite<T, R>> batch = new ArrayList<>(maxBatchSize);
+        boolean closing = false;
+        while (!closing) {
+            closing = collectBatch(batch);
+            if (!batch.isEmpty())
+                commit(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Collects next batch of pending writes, waiting for the first one.
+     *
+     * @return whether close marker was reached, so this is the last batch.
+     */
+    private boolean collectBatch(@NonNull List<PendingWrite<T, R>> batch) {
+        try {
+            PendingWrite<T, R> pendingWrite = pendingWrites.take();
+            long deadline = System.nanoTime() + windowNanos;
+            while (pendingWrite != closeMarker) {
+                batch.add(pendingWrite);
+                if (batch.size() >= maxBatchSize)
+                    return false;
+                pendingWrite = pendingWrites.poll(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                if (pendingWrite == null)
+                    return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            // Writer is stopped only by the close marker - collected writes are committed and writer goes on
+            return false;
+        }
+    }
+
+    private void commit(@NonNull List<PendingWrite<T, R>> batch) {
+        try {
+            List<R> results = committer.commit(batch.stream().map(PendingWrite::write).toList());
+            for (int i = 0; i < batch.size(); i++)
+                batch.get(i).result().complete(results.get(i));
+        } catch (IOException | RuntimeException e) {
+            batch.forEach(pendingWrite -> pendingWrite.result().completeExceptionally(e));
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import hr.pavetic.creditcardrequestsrecords.model.Oib;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over packed {@link Oib OIBs}, answering whether a person
+ * definitely has no request, or might have one. Adding and querying are
+ * thread safe and lock free.
+ *
+ * @implNote Bit positions are derived from two halves of a 64-bit mix of the
+ * OIB (Kirsch-Mitzenmacher double hashing). File layout: {@code int magic,
+ * int numHashes, int numWords, long[] words}.
+ */
+public class OibBloomFilter {
+
+    private static final int FILE_MAGIC = 0x4F494246;
+
+    private final AtomicLongArray words;
+    private final long numBits;
+    private final int numHashes;
+    private final AtomicLong setBits = new AtomicLong();
+
+    private OibBloomFilter(int numWords, int numHashes) {
+        this.words = new AtomicLongArray(numWords);
+        this.numBits = (long) numWords * Long.SIZE;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Creates empty filter sized for given number of OIBs.
+     *
+     * @param expectedOibs             number of OIBs at which false positive
+     *                                 probability reaches the given one.
+     * @param falsePositiveProbability false positive probability, between 0 and 1.
+     */
+    @NonNull
+    public static OibBloomFilter create(long expectedOibs, double falsePositiveProbability) {
+        if (expectedOibs < 1)
+            throw new IllegalArgumentException("Expected number of OIBs must be positive: " + expectedOibs);
+        if (!(falsePositiveProbability > 0 && falsePositiveProbability < 1))
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1: "
+                    + falsePositiveProbability);
+        double bits = -expectedOibs * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2));
+        long numWords = Math.max(1, (long) Math.ceil(bits / Long.SIZE));
+        if (numWords > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Bloom filter would be too large for " + expectedOibs + " OIBs");
+        int numHashes = Math.max(1, (int) Math.round((double) numWords * Long.SIZE / expectedOibs * Math.log(2)));
+        return new OibBloomFilter((int) numWords, numHashes);
+    }
+
+    public void add(long oib) {
+        long hash = mix(oib);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = Math.floorMod(hash1 + (long) i * hash2, numBits);
+            int wordIndex = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word = words.get(wordIndex);
+            while ((word & mask) == 0) {
+                long witness = words.compareAndExchange(wordIndex, word, word | mask);
+                if (witness == word) {
+                    setBits.incrementAndGet();
+                    break;
+                }
+                word = witness;
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if OIB was definitely never added.
+     */
+    public boolean mightContain(long oib) {
+        long hash = mix(oib);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long bit = Math.floorMod(hash1 + (long) i * hash2, numBits);
+            if ((words.get((int) (bit >>> 6)) & 1L << bit) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Estimates current false positive probability from the share of set bits,
+     * which grows past the configured one once more OIBs than expected are added.
+     */
+    public double expectedFalsePositiveProbability() {
+        return Math.pow((double) setBits.get() / numBits, numHashes);
+    }
+
+    /**
+     * Adds all OIBs of the other filter to this one.
+     *
+     * @return {@code false} if filters are not of the same size, in which case nothing is added.
+     */
+    public boolean merge(@NonNull OibBloomFilter other) {
+        if (other.numBits != numBits || other.numHashes != numHashes)
+            return false;
+        for (int i = 0; i < words.length(); i++) {
+            long otherWord = other.words.get(i);
+            long word = words.getAndAccumulate(i, otherWord, (current, added) -> current | added);
+            setBits.addAndGet(Long.bitCount(otherWord & ~word));
+        }
+        return true;
+    }
+
+    /**
+     * Writes the filter into the file atomically, replacing existing one.
+     */
+    public void writeTo(@NonNull Path file) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(tempFile);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeInt(numHashes);
+            output.writeInt(words.length());
+            for (int i = 0; i < words.length(); i++)
+                output.writeLong(words.get(i));
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return filter read from the file, or {@code null} if file is not a filter.
+     */
+    @Nullable
+    public static OibBloomFilter readFrom(@NonNull Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream))) {
+            if (input.readInt() != FILE_MAGIC)
+                return null;
+            int numHashes = input.readInt();
+            int numWords = input.readInt();
+            if (numHashes < 1 || numWords < 1 || (long) numWords * Long.BYTES != Files.size(file) - 3 * Integer.BYTES)
+                return null;
+            OibBloomFilter filter = new OibBloomFilter(numWords, numHashes);
+            for (int i = 0; i < numWords; i++) {
+                long word = input.readLong();
+                filter.words.set(i, word);
+                filter.setBits.addAndGet(Long.bitCount(word));
+            }
+            return filter;
+        }
+    }
+
+    /**
+     * Finalizer of MurmurHash3, so that similar OIBs set unrelated bits.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,165 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Reads credit card requests of a single lookup in parallel, on a dedicated
+ * pool of reader threads.
+ * <p>
+ * Requests of a lookup are split into at most {@code parallelism} batches, one
+ * of which is read by the calling thread itself, so a single lookup never
+ * occupies more than {@code parallelism - 1} reader threads. Lookups of only a
+ * few requests are read by the calling thread alone, as handing them off would
+ * cost more than reading them.
+ * <p>
+ * Batches waiting for a reader thread are queued up to the number of reader
+ * threads. Once the queue is full, the calling thread reads the batch itself,
+ * so concurrent lookups slow down their callers instead of piling up.
+ */
+public class ParallelRequestReader implements Closeable {
+
+    /**
+     * Minimal number of requests of a lookup which are read in parallel.
+     */
+    static final int MIN_PARALLEL_READS = 8;
+
+    private final int parallelism;
+
+    /**
+     * Reader threads, {@code null} if requests are read sequentially.
+     */
+    @Nullable
+    private final ExecutorService executor;
+
+    /**
+     * @param parallelism maximal number of threads reading requests of a
+     *                    single lookup, including the calling thread.
+     */
+    public ParallelRequestReader(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("Read parallelism must be positive: " + parallelism);
+        this.parallelism = parallelism;
+        if (parallelism > 1) {
+            CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("request-reader-");
+            threadFactory.setDaemon(true);
+            // Batch is read by the caller even once the pool is closed, as its future would never complete otherwise
+            this.executor = new ThreadPoolExecutor(parallelism - 1, parallelism - 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(parallelism - 1), threadFactory, (batch, pool) -> batch.run());
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * Reads all given requests.
+     *
+     * @param requests requests to read.
+     * @param reader   reader of a single request.
+     * @return results of the reader, in order of given requests.
+     */
+    @NonNull
+    public <T, R> List<R> readAll(@NonNull List<T> requests, @NonNull Function<T, R> reader) {
+        @SuppressWarnings("unchecked")
+        R[] results = (R[]) new Object[requests.size()];
+        read(requests.size(), i -> {
+            results[i] = reader.apply(requests.get(i));
+            return false;
+        });
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Reads given requests until any of them matches the predicate.
+     * Requests not yet read at that moment are skipped.
+     *
+     * @param requests  requests to read.
+     * @param predicate predicate reading a single request.
+     * @return whether any of the requests matches the predicate.
+     */
+    public <T> boolean anyMatch(@NonNull List<T> requests, @NonNull Predicate<T> predicate) {
+        return read(requests.size(), i -> predicate.test(requests.get(i)));
+    }
+
+    @Override
+    public void close() {
+        if (executor != null)
+            executor.shutdownNow();
+    }
+
+    /**
+     * Reads requests with indexes {@code [0, count)}, until reading any of them
+     * returns {@code true}.
+     *
+     * @return whether reading any of the requests returned {@code true}.
+     */
+    private boolean read(int count, @NonNull IntPredicate read) {
+        if (executor == null || count < MIN_PARALLEL_READS) {
+            for (int i = 0; i < count; i++)
+                if (read.test(i))
+                    return true;
+            return false;
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        int batches = Math.min(parallelism, count);
+        List<Future<Boolean>> futures = new ArrayList<>(batches - 1);
+        try {
+            for (int batch = 1; batch < batches; batch++) {
+                int firstIndex = batch;
+                futures.add(executor.submit(() -> readBatch(firstIndex, batches, count, read, stop)));
+            }
+            boolean matched = readBatch(0, batches, count, read, stop);
+            for (Future<Boolean> future : futures)
+                matched |= future.get();
+            return matched;
+        } catch (ExecutionException e) {
+            stop.set(true);
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "There was a problem reading credit card request", e.getCause());
+        } catch (InterruptedException e) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Interrupted while reading credit card requests", e);
+        } catch (RuntimeException e) {
+            stop.set(true);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads every {@code batches}-th request starting at given index, until
+     * reading any request of any batch returns {@code true}.
+     */
+    private static boolean readBatch(int firstIndex, int batches, int count,
+                                     @NonNull IntPredicate read, @NonNull AtomicBoolean stop) {
+        for (int i = firstIndex; i < count && !stop.get(); i += batches) {
+            if (read.test(i)) {
+                stop.set(true);
+                return true;
+            }
+        }
+        return false;
+    }
+}
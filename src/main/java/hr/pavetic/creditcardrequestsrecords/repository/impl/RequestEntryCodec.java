@@ -0,0 +1,349 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codec of a single credit card request entry, shared by all
+ * {@link hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository}
+ * implementations.
+ * <p>
+ * Entries are encoded in binary format, version {@value #VERSION}:
+ * <pre>
+ * byte   0x00 header marker
+ * byte   version
+ * byte   status code (0 - INACTIVE, 1 - ACTIVE)
+ * byte[] OIB, 11 ASCII digits
+ * short  name length, followed by UTF-8 name bytes
+ * short  last name length, followed by UTF-8 last name bytes
+ * </pre>
+ * Entries without the header are legacy text entries - {@code name lastName oib STATUS}
+ * - which can still be decoded, so existing requests remain readable.
+ * <p>
+ * Encoding writes directly into the given (reusable) buffer and decoding reads
+ * directly from the given buffer (e.g. memory-mapped request file), leaving
+ * its position and limit unchanged.
+ */
+public final class RequestEntryCodec {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Offset of the status code - status of an entry can be read
+     * (or changed) without decoding the rest of the entry.
+     */
+    public static final int STATUS_OFFSET = 2;
+
+    public static final int OIB_LENGTH = 11;
+
+    private static final byte HEADER_MARKER = 0;
+    private static final int OIB_OFFSET = STATUS_OFFSET + 1;
+    private static final int NAMES_OFFSET = OIB_OFFSET + OIB_LENGTH;
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+
+    private static final byte INACTIVE_CODE = 0;
+    private static final byte ACTIVE_CODE = 1;
+
+    private static final byte LEGACY_SEPARATOR = ' ';
+    private static final int LEGACY_FIELD_COUNT = 4;
+    private static final byte[] LEGACY_ACTIVE = Status.ACTIVE.name().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LEGACY_INACTIVE = Status.INACTIVE.name().getBytes(StandardCharsets.US_ASCII);
+
+    private RequestEntryCodec() {
+    }
+
+    /**
+     * Calculates number of bytes the entry is encoded into.
+     *
+     * @param personDto entry to encode.
+     * @return encoded entry length.
+     */
+    public static int encodedLength(@NonNull PersonDto personDto) {
+        return NAMES_OFFSET
+                + Short.BYTES + utf8Length(personDto.getName())
+                + Short.BYTES + utf8Length(personDto.getLastName());
+    }
+
+    /**
+     * Encodes the entry into the buffer, starting at its position. Position is
+     * advanced past the encoded entry.
+     *
+     * @param personDto entry to encode.
+     * @param target    buffer to encode entry into, must have at least
+     *                  {@link #encodedLength(PersonDto)} bytes remaining.
+     * @throws IllegalArgumentException if OIB is not 11 digits, or names are too long.
+     * @throws BufferOverflowException  if buffer does not have enough space remaining.
+     */
+    public static void encode(@NonNull PersonDto personDto, @NonNull ByteBuffer target) {
+        String oib = personDto.getOib();
+        if (oib.length() != OIB_LENGTH)
+            throw new IllegalArgumentException("OIB must contain exactly 11 digits: " + oib);
+
+        target.put(HEADER_MARKER)
+                .put((byte) VERSION)
+                .put(encodeStatus(personDto.getStatus()));
+        for (int i = 0; i < OIB_LENGTH; i++) {
+            char digit = oib.charAt(i);
+            if (digit < '0' || digit > '9')
+                throw new IllegalArgumentException("OIB must contain exactly 11 digits: " + oib);
+            target.put((byte) digit);
+        }
+        putName(personDto.getName(), target);
+        putName(personDto.getLastName(), target);
+    }
+
+    /**
+     * Encodes the entry into a new buffer, ready to be written.
+     *
+     * @param personDto entry to encode.
+     * @return buffer holding encoded entry.
+     */
+    @NonNull
+    public static ByteBuffer encode(@NonNull PersonDto personDto) {
+        ByteBuffer entry = ByteBuffer.allocate(encodedLength(personDto));
+        encode(personDto, entry);
+        return entry.flip();
+    }
+
+    /**
+     * Encodes the status code of a binary entry. Written at {@link #STATUS_OFFSET},
+     * it changes status of the entry without re-encoding the rest of it.
+     *
+     * @param status status to encode.
+     * @return status code.
+     */
+    public static byte encodeStatus(@NonNull Status status) {
+        return status == Status.ACTIVE ? ACTIVE_CODE : INACTIVE_CODE;
+    }
+
+    /**
+     * Returns whether the entry is in binary format, so its status can be changed
+     * in place. Legacy text entries have to be re-encoded instead.
+     *
+     * @param entry buffer holding the entry between its position and limit.
+     * @return whether entry is in binary format.
+     */
+    public static boolean isBinary(@NonNull ByteBuffer entry) {
+        return entry.hasRemaining() && entry.get(entry.position()) == HEADER_MARKER;
+    }
+
+    /**
+     * Decodes only the status of the entry, without decoding any other field.
+     *
+     * @param entry buffer holding the entry between its position and limit.
+     * @return status of the entry.
+     */
+    @NonNull
+    public static Status decodeStatus(@NonNull ByteBuffer entry) {
+        if (!isBinary(entry)) {
+            int end = legacyEntryEnd(entry);
+            int[] fieldStarts = legacyFieldStarts(entry, end);
+            return legacyStatus(entry, fieldStarts[LEGACY_FIELD_COUNT - 1], end);
+        }
+        checkBinaryEntry(entry);
+        return statusOf(entry.get(entry.position() + STATUS_OFFSET));
+    }
+
+    /**
+     * Decodes the entry, decoding its fields only if status of the
+     * entry is {@link Status#ACTIVE}.
+     *
+     * @param entry buffer holding the entry between its position and limit.
+     * @return decoded entry if it is active, otherwise {@code null}.
+     */
+    @Nullable
+    public static PersonDto decodeActive(@NonNull ByteBuffer entry) {
+        if (decodeStatus(entry) != Status.ACTIVE)
+            return null;
+        return decode(entry);
+    }
+
+    /**
+     * Decodes the whole entry.
+     *
+     * @param entry buffer holding the entry between its position and limit.
+     * @return decoded entry.
+     */
+    @NonNull
+    public static PersonDto decode(@NonNull ByteBuffer entry) {
+        if (!isBinary(entry))
+            return decodeLegacy(entry);
+
+        checkBinaryEntry(entry);
+        int start = entry.position();
+        int nameLength = Short.toUnsignedInt(entry.getShort(start + NAMES_OFFSET));
+        int lastNameStart = start + NAMES_OFFSET + Short.BYTES + nameLength;
+        if (lastNameStart + Short.BYTES > entry.limit())
+            throw malformedEntry();
+        int lastNameLength = Short.toUnsignedInt(entry.getShort(lastNameStart));
+        if (lastNameStart + Short.BYTES + lastNameLength > entry.limit())
+            throw malformedEntry();
+
+        return PersonDto.builder()
+                .name(decode(entry, start + NAMES_OFFSET + Short.BYTES, lastNameStart, StandardCharsets.UTF_8))
+                .lastName(decode(entry, lastNameStart + Short.BYTES,
+                        lastNameStart + Short.BYTES + lastNameLength, StandardCharsets.UTF_8))
+                .oib(decode(entry, start + OIB_OFFSET, start + NAMES_OFFSET, StandardCharsets.US_ASCII))
+                .status(statusOf(entry.get(start + STATUS_OFFSET)))
+                .build();
+    }
+
+    private static void checkBinaryEntry(@NonNull ByteBuffer entry) {
+        if (entry.remaining() < NAMES_OFFSET + Short.BYTES)
+            throw malformedEntry();
+        int version = entry.get(entry.position() + 1);
+        if (version != VERSION)
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Request could not be read properly - unsupported entry version " + version);
+    }
+
+    @NonNull
+    private static Status statusOf(byte statusCode) {
+        return switch (statusCode) {
+            case ACTIVE_CODE -> Status.ACTIVE;
+            case INACTIVE_CODE -> Status.INACTIVE;
+            default -> throw new IllegalArgumentException("Invalid status code to parse: " + statusCode);
+        };
+    }
+
+    private static void putName(@NonNull String name, @NonNull ByteBuffer target) {
+        int length = utf8Length(name);
+        if (length > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Name is too long to be encoded: " + length + " bytes");
+        target.putShort((short) length);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | c >> 6))
+                        .put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < name.length()
+                    && Character.isLowSurrogate(name.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, name.charAt(++i));
+                target.put((byte) (0xF0 | codePoint >> 18))
+                        .put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                        .put((byte) (0x80 | codePoint >> 6 & 0x3F))
+                        .put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate - encoded as '?', same as String#getBytes would
+                target.put((byte) '?');
+            } else {
+                target.put((byte) (0xE0 | c >> 12))
+                        .put((byte) (0x80 | c >> 6 & 0x3F))
+                        .put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static int utf8Length(@NonNull String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                length += 1;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c))
+                length += 1;
+            else
+                length += 3;
+        }
+        return length;
+    }
+
+    @NonNull
+    private static PersonDto decodeLegacy(@NonNull ByteBuffer entry) {
+        int end = legacyEntryEnd(entry);
+        int[] fieldStarts = legacyFieldStarts(entry, end);
+        return PersonDto.builder()
+                .name(decode(entry, fieldStarts[0], fieldStarts[1] - 1, StandardCharsets.UTF_8))
+                .lastName(decode(entry, fieldStarts[1], fieldStarts[2] - 1, StandardCharsets.UTF_8))
+                .oib(decode(entry, fieldStarts[2], fieldStarts[3] - 1, StandardCharsets.UTF_8))
+                .status(legacyStatus(entry, fieldStarts[3], end))
+                .build();
+    }
+
+    /**
+     * Finds end of the legacy entry - only the first line of the buffer holds the
+     * entry. Entry without any text is reported as such.
+     */
+    private static int legacyEntryEnd(@NonNull ByteBuffer entry) {
+        int end = entry.position();
+        boolean hasText = false;
+        while (end < entry.limit() && entry.get(end) != '\n' && entry.get(end) != '\r') {
+            hasText |= !Character.isWhitespace(entry.get(end));
+            end++;
+        }
+        if (!hasText)
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Credit card request entry does not contain any information");
+        return end;
+    }
+
+    /**
+     * Finds start index of each of the legacy entry fields, ensuring there are exactly 4 of them.
+     */
+    @NonNull
+    private static int[] legacyFieldStarts(@NonNull ByteBuffer entry, int end) {
+        int[] fieldStarts = new int[LEGACY_FIELD_COUNT];
+        int fieldCount = 1;
+        fieldStarts[0] = entry.position();
+        for (int i = entry.position(); i < end; i++) {
+            if (entry.get(i) != LEGACY_SEPARATOR)
+                continue;
+            if (fieldCount == LEGACY_FIELD_COUNT)
+                throw malformedEntry();
+            fieldStarts[fieldCount++] = i + 1;
+        }
+        if (fieldCount != LEGACY_FIELD_COUNT)
+            throw malformedEntry();
+        return fieldStarts;
+    }
+
+    @NonNull
+    private static Status legacyStatus(@NonNull ByteBuffer entry, int start, int end) {
+        if (matches(entry, start, end, LEGACY_ACTIVE))
+            return Status.ACTIVE;
+        if (matches(entry, start, end, LEGACY_INACTIVE))
+            return Status.INACTIVE;
+        throw new IllegalArgumentException("Invalid status to parse: "
+                + decode(entry, start, end, StandardCharsets.UTF_8));
+    }
+
+    private static boolean matches(@NonNull ByteBuffer entry, int start, int end, @NonNull byte[] expected) {
+        if (end - start != expected.length)
+            return false;
+        for (int i = 0; i < expected.length; i++) {
+            if (entry.get(start + i) != expected[i])
+                return false;
+        }
+        return true;
+    }
+
+    @NonNull
+    private static String decode(@NonNull ByteBuffer entry, int start, int end, @NonNull Charset charset) {
+        byte[] bytes = new byte[end - start];
+        entry.get(start, bytes);
+        return new String(bytes, charset);
+    }
+
+    @NonNull
+    private static ResponseStatusException malformedEntry() {
+        return new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                "Request could not be read properly - malformed entry");
+    }
+}
@@ -0,0 +1,721 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import hr.pavetic.creditcardrequestsrecords.model.Oib;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of credit card request files, keyed by OIB.
+ * <p>
+ * Index is built once from the requests folder (lazily on the first
+ * lookup, or eagerly via {@link #start()}) and is afterwards kept current
+ * by the repository on every write. Files added or changed by other
+ * processes are picked up by a {@link WatchService} reconciler thread
+ * started by {@link #start()}, which watches all folders of the
+ * {@link RequestFolderLayout}.
+ * <p>
+ * If snapshot interval is set, index is periodically written into a
+ * {@link RequestIndexSnapshot} (and once more on {@link #close()}). It is
+ * then built from the snapshot, reading only request files modified since it
+ * was taken. As modifying a file in place does not modify its folder, folders
+ * of request files changed after the snapshot are appended to its
+ * {@link ChangedFolderJournal} before the change (see {@link #trackChange(Path)}).
+ * Only journaled folders are listed when the index is built from the snapshot,
+ * even after a crash - other folders are taken from it as they are. Without a
+ * valid journal, all folders are listed. Other processes modifying request
+ * files in place while the index is not running have to modify their folder
+ * as well.
+ *
+ * @implNote Status of each request is resolved when the file is indexed.
+ * If the file could not be parsed at that time (e.g. it is still being
+ * written), status is left {@code null} and callers should read the file
+ * themselves - this way malformed entries are still reported on lookup.
+ */
+@Log4j2
+public class RequestFileIndex implements Closeable {
+
+    /**
+     * Indexed credit card request file.
+     *
+     * @param path   path to the request file.
+     * @param status status of the request, or {@code null} if unknown.
+     */
+    public record IndexedRequest(@NonNull Path path, @Nullable Status status) {
+    }
+
+    /**
+     * Snapshot is kept in its own folder, so that writing it does not modify the requests folder.
+     */
+    public static final String SNAPSHOT_FOLDER_NAME = ".index";
+    public static final String SNAPSHOT_FILE_NAME = "requests.snapshot";
+    public static final String JOURNAL_FILE_NAME = "changed-folders.journal";
+
+    /**
+     * Taken off the snapshot watermark, as file systems may record modification
+     * time with coarser precision, or from a clock lagging behind.
+     */
+    private static final long MODIFICATION_TIME_PRECISION_MILLIS = 2000;
+
+    private static final int STOP_TIMEOUT_SECONDS = 10;
+
+    private final RequestFolderLayout layout;
+
+    /**
+     * Resolves status of the request stored in given file.
+     */
+    private final Function<Path, Status> statusReader;
+
+    /**
+     * Interval of writing the index snapshot, zero if snapshots are disabled.
+     */
+    private final Duration snapshotInterval;
+    private final Path snapshotFile;
+    private final Path journalFile;
+
+    /**
+     * Keyed by primitive packed OIB, as index holds every person with a request.
+     */
+    private volatile RequestsByOib requestsByOib = new RequestsByOib();
+
+    /**
+     * Folders of request files changed since the last snapshot. Folder is added
+     * only once it is journaled, if there is a journal.
+     */
+    private final AtomicReference<Set<Path>> changedFolders = new AtomicReference<>(ConcurrentHashMap.newKeySet());
+
+    /**
+     * Guards the journal, and swapping of changed folders, so that no folder
+     * journaled for the previous snapshot is left out of the journal of the next one.
+     */
+    private final Lock journalLock = new ReentrantLock();
+
+    /**
+     * Journal of the snapshot in the snapshot file, {@code null} if there is no valid one.
+     */
+    @Nullable
+    private ChangedFolderJournal journal;
+
+    /**
+     * Guards building of the index and watching, held in write mode. Changes of
+     * the index hold it in read mode, so that none is made to the index being
+     * replaced by a rebuild and lost. Not a monitor, as index is built while
+     * holding it, which would pin the carrier of a virtual thread.
+     */
+    private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
+
+    private volatile boolean built;
+    private WatchService watchService;
+    private Thread reconcilerThread;
+    private ScheduledExecutorService snapshotExecutor;
+
+    public RequestFileIndex(@NonNull RequestFolderLayout layout, @NonNull Function<Path, Status> statusReader) {
+        this(layout, statusReader, Duration.ZERO);
+    }
+
+    /**
+     * @param snapshotInterval interval of writing the index snapshot, zero to disable snapshots.
+     */
+    public RequestFileIndex(@NonNull RequestFolderLayout layout, @NonNull Function<Path, Status> statusReader,
+                            @NonNull Duration snapshotInterval) {
+        if (snapshotInterval.isNegative())
+            throw new IllegalArgumentException("Snapshot interval cannot be negative: " + snapshotInterval);
+        this.layout = layout;
+        this.statusReader = statusReader;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotFile = layout.getRequestsFolder().resolve(SNAPSHOT_FOLDER_NAME).resolve(SNAPSHOT_FILE_NAME);
+        this.journalFile = snapshotFile.resolveSibling(JOURNAL_FILE_NAME);
+    }
+
+    /**
+     * Builds the index and starts watching requests folder for changes
+     * made outside of this process.
+     */
+    public void start() throws IOException {
+        lifecycleLock.writeLock().lock();
+        try {
+            if (watchService != null)
+                return;
+
+            Path requestsFolder = layout.getRequestsFolder();
+            Files.createDirectories(requestsFolder);
+            // Register watcher before building, so no change between build and registration is missed
+            watchService = requestsFolder.getFileSystem().newWatchService();
+            try (Stream<Path> folders = Files.walk(requestsFolder, layout.getShardDepth())) {
+                for (Path folder : (Iterable<Path>) folders.filter(Files::isDirectory)::iterator)
+                    watch(watchService, folder);
+            }
+            rebuild(true);
+
+            reconcilerThread = new Thread(this::reconcileLoop, "request-index-reconciler");
+            reconcilerThread.setDaemon(true);
+            reconcilerThread.start();
+
+            if (isSnapshotEnabled()) {
+                snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "request-index-snapshot");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                snapshotExecutor.scheduleWithFixedDelay(this::snapshotSafely,
+                        snapshotInterval.toMillis(), snapshotInterval.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops watching requests folder, and writes the final snapshot if snapshots are enabled.
+     */
+    @Override
+    public void close() throws IOException {
+        lifecycleLock.writeLock().lock();
+        try {
+            if (watchService == null)
+                return;
+            watchService.close();
+            reconcilerThread.interrupt();
+            watchService = null;
+            reconcilerThread = null;
+            if (snapshotExecutor != null) {
+                // Not interrupted, as it would close the snapshot file being written
+                snapshotExecutor.shutdown();
+                if (!snapshotExecutor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                    log.warn("Credit card request index snapshot did not finish in {}s", STOP_TIMEOUT_SECONDS);
+                snapshotExecutor = null;
+                try {
+                    snapshot();
+                } finally {
+                    closeJournal();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for index snapshot");
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes snapshot of the index, replacing the previous one, and starts its journal.
+     */
+    public void snapshot() throws IOException {
+        ensureBuilt();
+        // Taken before reading the index, so that changes the snapshot could miss are not covered by it
+        long watermark = System.currentTimeMillis() - MODIFICATION_TIME_PRECISION_MILLIS;
+        Set<Path> changedBefore = swapChangedFolders(ConcurrentHashMap.newKeySet());
+        try {
+            Files.createDirectories(snapshotFile.getParent());
+            // Changes made while the index is read could be missed, so their folders are written as well
+            RequestIndexSnapshot.write(snapshotFile, layout.getRequestsFolder(), watermark, iterator(), () -> {
+                Set<Path> changed = new HashSet<>(changedBefore);
+                changed.addAll(changedFolders.get());
+                return changed;
+            });
+        } catch (IOException | RuntimeException e) {
+            // Previous snapshot and its journal are still in place
+            journalLock.lock();
+            try {
+                changedFolders.get().addAll(changedBefore);
+            } finally {
+                journalLock.unlock();
+            }
+            throw e;
+        }
+
+        journalLock.lock();
+        try {
+            // Folders changed while the snapshot was written were journaled for the previous one
+            openJournal(watermark, changedFolders.get());
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * Tracks folder of the request file about to be changed, so that the change
+     * is not taken as covered by the snapshot, even if the process crashes
+     * before the next one is written. Folder is synced to the journal before
+     * returning, unless it was already tracked since the snapshot.
+     *
+     * @param file request file about to be changed.
+     */
+    public void trackChange(@NonNull Path file) throws IOException {
+        if (!isSnapshotEnabled())
+            return;
+        // Journal of the snapshot the index is built from is opened by the build
+        ensureBuilt();
+        journal(file.getParent());
+    }
+
+    private void journal(@NonNull Path folder) throws IOException {
+        if (changedFolders.get().contains(folder))
+            return;
+        journalLock.lock();
+        try {
+            Set<Path> changed = changedFolders.get();
+            if (changed.contains(folder))
+                return;
+            if (journal != null) {
+                try {
+                    journal.append(folder);
+                } catch (IOException e) {
+                    log.warn("Could not append to credit card request index journal {}, discarding it",
+                            journalFile, e);
+                    discardJournal();
+                }
+            }
+            changed.add(folder);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * Returns all indexed requests for given OIB.
+     *
+     * @param oib oib of the person.
+     * @return indexed requests, empty if there are none or OIB is malformed.
+     */
+    @NonNull
+    public Collection<IndexedRequest> findByOib(@NonNull String oib) {
+        ensureBuilt();
+        long key = Oib.pack(oib);
+        if (key == Oib.INVALID)
+            return List.of();
+        return requestsByOib.get(key);
+    }
+
+    /**
+     * Iterates over all indexed requests without copying them. Iteration
+     * is weakly consistent - requests added or removed meanwhile may or may
+     * not be returned.
+     *
+     * @return iterator over indexed requests of all people.
+     */
+    @NonNull
+    public Iterator<IndexedRequest> iterator() {
+        ensureBuilt();
+        return requestsByOib.iterator();
+    }
+
+    /**
+     * Returns number of indexed request files, without building the index.
+     *
+     * @return number of indexed request files, {@code 0} if index is not built yet.
+     */
+    public int size() {
+        return requestsByOib.size();
+    }
+
+    /**
+     * Adds or updates request file in the index. Requests of malformed
+     * OIB are not indexed, as they could not be looked up.
+     *
+     * @param path   path to the request file.
+     * @param oib    oib of the person request belongs to.
+     * @param status status of the request, {@code null} if unknown.
+     */
+    public void put(@NonNull Path path, @NonNull String oib, @Nullable Status status) {
+        ensureBuilt();
+        long key = Oib.pack(oib);
+        if (key == Oib.INVALID)
+            return;
+        lifecycleLock.readLock().lock();
+        try {
+            requestsByOib.put(key, new IndexedRequest(path, status));
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+        trackChangeOf(path);
+    }
+
+    /**
+     * Removes request file from the index.
+     *
+     * @param path path to the request file.
+     */
+    public void remove(@NonNull Path path) {
+        long oib = Oib.pack(RequestFolderLayout.oibFromFileName(path.getFileName().toString()));
+        if (oib == Oib.INVALID)
+            return;
+        lifecycleLock.readLock().lock();
+        try {
+            requestsByOib.remove(oib, path);
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+        trackChangeOf(path);
+    }
+
+    private void ensureBuilt() {
+        if (built)
+            return;
+        lifecycleLock.writeLock().lock();
+        try {
+            if (!built)
+                rebuild(true);
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param fromSnapshot whether to build the index from the snapshot, and open its journal.
+     *                     Otherwise, all request files are read, and the journal is left as it is.
+     */
+    private void rebuild(boolean fromSnapshot) {
+        lifecycleLock.writeLock().lock();
+        try {
+            // Build into a fresh map and swap it, so lookups are never served from a half-built index
+            RequestsByOib rebuiltRequestsByOib = new RequestsByOib();
+            RequestIndexSnapshot snapshot = fromSnapshot ? readSnapshot() : null;
+            try {
+                if (snapshot != null) {
+                    Set<Path> journaledFolders = readJournal(snapshot.watermark());
+                    if (journaledFolders != null)
+                        snapshot = snapshot.withJournal(journaledFolders);
+                    restore(rebuiltRequestsByOib, snapshot);
+                    reopenJournal(snapshot.watermark(), journaledFolders);
+                } else {
+                    try (Stream<Path> files = layout.requestFiles()) {
+                        files.forEach(file -> index(rebuiltRequestsByOib, file));
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not build credit card request index", e);
+            }
+            requestsByOib = rebuiltRequestsByOib;
+            built = true;
+            log.info("Credit card request index built for {} person(s)", requestsByOib.people());
+        } finally {
+            lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return folders journaled for the snapshot of given watermark, or {@code null} if there is no valid journal.
+     */
+    @Nullable
+    private Set<Path> readJournal(long watermark) {
+        try {
+            Set<Path> journaledFolders = ChangedFolderJournal.read(journalFile, layout.getRequestsFolder(), watermark);
+            if (journaledFolders == null)
+                log.warn("Credit card request index snapshot {} has no valid journal, listing all folders",
+                        snapshotFile);
+            return journaledFolders;
+        } catch (IOException e) {
+            log.warn("Could not read credit card request index journal {}, listing all folders", journalFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Continues the journal of the snapshot the index is built from, rewriting
+     * it to drop an entry torn by a crash. Without a valid journal, changes are
+     * not journaled until the next snapshot.
+     */
+    private void reopenJournal(long watermark, @Nullable Set<Path> journaledFolders) throws IOException {
+        journalLock.lock();
+        try {
+            if (journaledFolders != null) {
+                openJournal(watermark, journaledFolders);
+                changedFolders.set(ConcurrentHashMap.newKeySet());
+                changedFolders.get().addAll(journaledFolders);
+            } else {
+                discardJournal();
+            }
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the journal with a new one, for the snapshot of given watermark. Must hold journal lock.
+     */
+    private void openJournal(long watermark, @NonNull Collection<Path> folders) throws IOException {
+        closeJournal();
+        try {
+            journal = ChangedFolderJournal.create(journalFile, layout.getRequestsFolder(), watermark, folders);
+        } catch (IOException e) {
+            // Journal left in place could belong to the previous snapshot
+            discardJournal();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes and deletes the journal, so that the snapshot is not taken as complete. Must hold journal lock.
+     */
+    private void discardJournal() throws IOException {
+        closeJournal();
+        Files.deleteIfExists(journalFile);
+    }
+
+    private void closeJournal() throws IOException {
+        journalLock.lock();
+        try {
+            if (journal != null) {
+                ChangedFolderJournal closed = journal;
+                journal = null;
+                closed.close();
+            }
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    /**
+     * @return folders changed since the last snapshot, replaced by given ones.
+     */
+    @NonNull
+    private Set<Path> swapChangedFolders(@NonNull Set<Path> folders) {
+        journalLock.lock();
+        try {
+            return changedFolders.getAndSet(folders);
+        } finally {
+            journalLock.unlock();
+        }
+    }
+
+    @Nullable
+    private RequestIndexSnapshot readSnapshot() {
+        if (!isSnapshotEnabled() || !Files.exists(snapshotFile))
+            return null;
+        try {
+            RequestIndexSnapshot snapshot = RequestIndexSnapshot.readFrom(snapshotFile, layout.getRequestsFolder());
+            if (snapshot == null)
+                log.warn("Credit card request index snapshot {} is not valid, reading all requests", snapshotFile);
+            return snapshot;
+        } catch (IOException e) {
+            log.warn("Could not read credit card request index snapshot {}, reading all requests", snapshotFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Builds index from the snapshot. Requests of folders covered by the snapshot
+     * are taken from it as they are. Other folders are listed, and request files
+     * modified since the snapshot, or missing from it, are read.
+     */
+    private void restore(@NonNull RequestsByOib index,
+                         @NonNull RequestIndexSnapshot snapshot) throws IOException {
+        long restored = 0;
+        long read = 0;
+        try (Stream<Path> folders = Files.walk(layout.getRequestsFolder(), layout.getShardDepth())) {
+            for (Path folder : (Iterable<Path>) folders.filter(Files::isDirectory)::iterator) {
+                Map<Path, IndexedRequest> snapshotRequests = snapshot.requestsIn(folder);
+                if (snapshot.covers(folder, Files.getLastModifiedTime(folder))) {
+                    for (IndexedRequest request : snapshotRequests.values()) {
+                        if (add(index, request))
+                            restored++;
+                    }
+                    continue;
+                }
+
+                try (Stream<Path> files = Files.list(folder)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        if (!layout.isInPlace(file))
+                            continue;
+                        BasicFileAttributes attributes;
+                        try {
+                            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                        } catch (NoSuchFileException e) {
+                            continue;
+                        }
+                        if (!attributes.isRegularFile())
+                            continue;
+                        IndexedRequest request = snapshotRequests.get(file);
+                        if (request != null && snapshot.covers(attributes.lastModifiedTime()) && add(index, request)) {
+                            restored++;
+                        } else {
+                            index(index, file);
+                            read++;
+                        }
+                    }
+                }
+            }
+        }
+        log.info("Credit card request index restored from snapshot, {} request(s) taken from it and {} read",
+                restored, read);
+    }
+
+    /**
+     * @return {@code false} if request is not in place, or its OIB is malformed.
+     */
+    private boolean add(@NonNull RequestsByOib index, @NonNull IndexedRequest request) {
+        if (!layout.isInPlace(request.path()))
+            return false;
+        long oib = Oib.pack(RequestFolderLayout.oibFromFileName(request.path().getFileName().toString()));
+        if (oib == Oib.INVALID)
+            return false;
+        index.put(oib, request);
+        return true;
+    }
+
+    /**
+     * @return {@code true} if request file was added to the index.
+     */
+    private boolean index(@NonNull RequestsByOib index, @NonNull Path file) {
+        if (!layout.isInPlace(file))
+            return false;
+        long oib = Oib.pack(RequestFolderLayout.oibFromFileName(file.getFileName().toString()));
+        if (oib == Oib.INVALID)
+            return false;
+        if (!Files.exists(file)) {
+            remove(file);
+            return false;
+        }
+
+        Status status;
+        try {
+            status = statusReader.apply(file);
+        } catch (RuntimeException e) {
+            // File could be incomplete or malformed - leave it to be read on lookup
+            status = null;
+        }
+        index.put(oib, new IndexedRequest(file, status));
+        return true;
+    }
+
+    /**
+     * Indexes request file into the current index.
+     *
+     * @return {@code true} if request file was added to the index.
+     */
+    private boolean reindex(@NonNull Path file) {
+        lifecycleLock.readLock().lock();
+        try {
+            return index(requestsByOib, file);
+        } finally {
+            lifecycleLock.readLock().unlock();
+        }
+    }
+
+    private boolean isSnapshotEnabled() {
+        return !snapshotInterval.isZero();
+    }
+
+    private void snapshotSafely() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not write credit card request index snapshot {}", snapshotFile, e);
+        }
+    }
+
+    /**
+     * Tracks folder of the request file already changed, so that the change
+     * is not taken as covered by a snapshot which could have missed it.
+     */
+    private void trackChangeOf(@NonNull Path file) {
+        if (!isSnapshotEnabled())
+            return;
+        try {
+            journal(file.getParent());
+        } catch (IOException e) {
+            // Journal could not be discarded, so the next build could take the folder from the snapshot
+            log.error("Could not track change of credit card request folder {}", file.getParent(), e);
+        }
+    }
+
+    private void reconcileLoop() {
+        WatchService watcher = watchService;
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Snapshot does not cover changes made since it was written, which could be the ones missed
+                    log.warn("Credit card request index watcher overflowed, rebuilding index");
+                    rebuild(false);
+                    continue;
+                }
+
+                Path path = ((Path) key.watchable()).resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE)
+                    remove(path);
+                else if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path))
+                    watchNewFolder(watcher, path);
+                else if (reindex(path))
+                    trackChangeOf(path);
+            }
+
+            if (!key.reset() && key.watchable().equals(layout.getRequestsFolder())) {
+                log.warn("Credit card request folder is no longer accessible, stopping index reconciler");
+                return;
+            }
+        }
+    }
+
+    private void watch(@NonNull WatchService watcher, @NonNull Path folder) throws IOException {
+        folder.register(watcher,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * Starts watching newly created shard folder. Its content is indexed as well,
+     * as files could have been written into it before it was registered.
+     */
+    private void watchNewFolder(@NonNull WatchService watcher, @NonNull Path folder) {
+        if (!layout.isLayoutFolder(folder))
+            return;
+        try {
+            watch(watcher, folder);
+            try (Stream<Path> paths = Files.walk(folder, layout.getShardDepth())) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    if (!Files.isDirectory(path))
+                        reindex(path);
+                    else if (!path.equals(folder) && layout.isLayoutFolder(path))
+                        watch(watcher, path);
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Index is being closed
+        } catch (IOException e) {
+            log.warn("Could not watch credit card request folder {}, rebuilding index", folder, e);
+            rebuild(false);
+        }
+    }
+}
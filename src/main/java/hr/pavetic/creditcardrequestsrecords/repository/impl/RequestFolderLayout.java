@@ -0,0 +1,153 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import lombok.Getter;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Describes where credit card request files are placed inside the
+ * requests folder.
+ * <p>
+ * With shard depth of {@code 0} all files are stored flat in the requests
+ * folder. Otherwise, each request file is placed in nested shard folders
+ * made of consecutive 2-character OIB prefixes, e.g. with shard depth of
+ * {@code 2}, {@code 12345678901_1694000000000.txt} is stored as
+ * {@code requests/12/34/12345678901_1694000000000.txt}. This way lookup
+ * for one person touches a single small folder.
+ */
+@Getter
+public class RequestFolderLayout {
+
+    public static final String REQUEST_FILE_EXTENSION = ".txt";
+
+    /**
+     * Number of OIB characters each shard folder is named by.
+     */
+    public static final int SHARD_WIDTH = 2;
+
+    /**
+     * Shard folder name used when OIB is too short to fill the shard.
+     */
+    private static final String EMPTY_SHARD = "_";
+
+    private final Path requestsFolder;
+    private final int shardDepth;
+
+    public RequestFolderLayout(@NonNull Path requestsFolder, int shardDepth) {
+        if (shardDepth < 0)
+            throw new IllegalArgumentException("Shard depth cannot be negative: " + shardDepth);
+        this.requestsFolder = requestsFolder;
+        this.shardDepth = shardDepth;
+    }
+
+    /**
+     * Resolves folder in which requests for given OIB are stored.
+     *
+     * @param oib oib of the person.
+     * @return folder holding requests of the person.
+     */
+    @NonNull
+    public Path folderFor(@NonNull String oib) {
+        Path folder = requestsFolder;
+        for (int shard = 0; shard < shardDepth; shard++) {
+            int start = Math.min(shard * SHARD_WIDTH, oib.length());
+            int end = Math.min(start + SHARD_WIDTH, oib.length());
+            folder = folder.resolve(start < end ? oib.substring(start, end) : EMPTY_SHARD);
+        }
+        return folder;
+    }
+
+    /**
+     * Resolves path of the request file with given name, belonging to given OIB.
+     *
+     * @param oib      oib of the person.
+     * @param fileName name of the request file.
+     * @return path of the request file.
+     */
+    @NonNull
+    public Path requestPath(@NonNull String oib, @NonNull String fileName) {
+        return folderFor(oib).resolve(fileName);
+    }
+
+    /**
+     * Returns whether given request file is placed where this layout expects it.
+     *
+     * @param file request file.
+     * @return {@code true} if file is in its shard folder.
+     */
+    public boolean isInPlace(@NonNull Path file) {
+        String oib = oibFromFileName(file.getFileName().toString());
+        return oib != null && requestPath(oib, file.getFileName().toString()).equals(file);
+    }
+
+    /**
+     * Returns whether given folder is one of the shard folders (or the
+     * requests folder itself) which may contain request files or other
+     * shard folders.
+     *
+     * @param folder folder inside requests folder.
+     * @return {@code true} if folder is part of the layout.
+     */
+    public boolean isLayoutFolder(@NonNull Path folder) {
+        if (folder.equals(requestsFolder))
+            return true;
+        return folder.startsWith(requestsFolder)
+                && requestsFolder.relativize(folder).getNameCount() <= shardDepth;
+    }
+
+    /**
+     * Lists all request files stored under this layout. Files which are
+     * not in their shard folder (e.g. not yet migrated) are not listed.
+     *
+     * @return lazily populated stream of request files, must be closed after use.
+     */
+    @NonNull
+    public Stream<Path> requestFiles() throws IOException {
+        if (!Files.isDirectory(requestsFolder))
+            return Stream.empty();
+        return Files.walk(requestsFolder, shardDepth + 1)
+                .filter(this::isInPlace)
+                .filter(Files::isRegularFile);
+    }
+
+    /**
+     * Extracts OIB from the request file name ({@code <oib>_<epochMillis>.txt}).
+     *
+     * @param fileName name of the request file.
+     * @return oib, or {@code null} if given file is not a request file.
+     */
+    @Nullable
+    public static String oibFromFileName(@NonNull String fileName) {
+        if (!fileName.endsWith(REQUEST_FILE_EXTENSION))
+            return null;
+        int separatorIndex = fileName.indexOf('_');
+        int end = separatorIndex >= 0 ? separatorIndex : fileName.length() - REQUEST_FILE_EXTENSION.length();
+        if (end == 0)
+            return null;
+        return fileName.substring(0, end);
+    }
+
+    /**
+     * Extracts creation time from the request file name ({@code <oib>_<epochMillis>.txt}).
+     *
+     * @param fileName name of the request file.
+     * @return epoch millis the request was created at, or {@code -1} if file name
+     * does not contain it (e.g. legacy {@code <oib>.txt} file).
+     */
+    public static long createdAtFromFileName(@NonNull String fileName) {
+        int separatorIndex = fileName.indexOf('_');
+        if (separatorIndex < 0 || !fileName.endsWith(REQUEST_FILE_EXTENSION))
+            return -1;
+        try {
+            return Long.parseLong(fileName.substring(separatorIndex + 1,
+                    fileName.length() - REQUEST_FILE_EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Snapshot of the {@link RequestFileIndex}, from which the index is restored
+ * on startup instead of reading every request file.
+ * <p>
+ * Snapshot is valid for all changes of the requests folder made before its
+ * watermark. Request file modified at or after the watermark has to be read
+ * again. As modifying a file in place does not modify its folder, folders are
+ * only taken from the snapshot without listing them if it is complete - that
+ * is, all folders whose request files were changed after it was written are
+ * known from its {@link ChangedFolderJournal} - and they were neither modified
+ * at or after the watermark, nor changed while or after it was written.
+ *
+ * @param watermark        epoch millis before which all changes are covered.
+ * @param complete         whether all folders changed after the snapshot was written are known.
+ * @param requestsByFolder indexed requests, grouped by folder holding them.
+ * @param changedFolders   folders changed while the snapshot was written, or after it if complete.
+ * @implNote File layout: {@code int magic, long watermark}, followed by entries
+ * of {@code byte status, UTF path}, terminated by status of {@code -1}, and
+ * by {@code int count} of changed folders and their {@code UTF path}s. Paths are
+ * relative to the requests folder, and status is {@code 0} if unknown, or its
+ * ordinal increased by one.
+ */
+public record RequestIndexSnapshot(long watermark, boolean complete,
+                                   @NonNull Map<Path, Map<Path, RequestFileIndex.IndexedRequest>> requestsByFolder,
+                                   @NonNull Set<Path> changedFolders) {
+
+    private static final int FILE_MAGIC = 0x5249445a;
+    private static final byte UNKNOWN_STATUS = 0;
+    private static final byte END_OF_ENTRIES = -1;
+    private static final Status[] STATUSES = Status.values();
+
+    /**
+     * @return {@code true} if change made at given time is included in the snapshot.
+     */
+    public boolean covers(@NonNull FileTime lastModifiedTime) {
+        return lastModifiedTime.toMillis() < watermark;
+    }
+
+    /**
+     * @param folder           folder inside requests folder.
+     * @param lastModifiedTime time the folder was last modified.
+     * @return {@code true} if folder can be taken from the snapshot without listing it.
+     */
+    public boolean covers(@NonNull Path folder, @NonNull FileTime lastModifiedTime) {
+        return complete && !changedFolders.contains(folder) && covers(lastModifiedTime);
+    }
+
+    /**
+     * @param journaledFolders folders changed after the snapshot, read from its journal.
+     * @return complete snapshot, with journaled folders changed as well.
+     */
+    @NonNull
+    public RequestIndexSnapshot withJournal(@NonNull Collection<Path> journaledFolders) {
+        Set<Path> allChangedFolders = new HashSet<>(changedFolders);
+        allChangedFolders.addAll(journaledFolders);
+        return new RequestIndexSnapshot(watermark, true, requestsByFolder, allChangedFolders);
+    }
+
+    /**
+     * @param folder folder inside requests folder.
+     * @return requests in the folder as of the snapshot, keyed by their path.
+     */
+    @NonNull
+    public Map<Path, RequestFileIndex.IndexedRequest> requestsIn(@NonNull Path folder) {
+        return requestsByFolder.getOrDefault(folder, Map.of());
+    }
+
+    /**
+     * Writes snapshot of given requests into the file atomically, replacing existing one.
+     *
+     * @param file           snapshot file.
+     * @param requestsFolder folder request paths are relative to.
+     * @param watermark      epoch millis before which all changes are covered by given requests.
+     * @param requests       requests to write.
+     * @param changedFolders folders to list again, taken once all requests are written.
+     */
+    public static void write(@NonNull Path file, @NonNull Path requestsFolder, long watermark,
+                             @NonNull Iterator<RequestFileIndex.IndexedRequest> requests,
+                             @NonNull Supplier<Collection<Path>> changedFolders) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(tempFile);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream))) {
+            output.writeInt(FILE_MAGIC);
+            output.writeLong(watermark);
+            while (requests.hasNext()) {
+                RequestFileIndex.IndexedRequest request = requests.next();
+                Status status = request.status();
+                output.writeByte(status == null ? UNKNOWN_STATUS : status.ordinal() + 1);
+                output.writeUTF(requestsFolder.relativize(request.path()).toString());
+            }
+            output.writeByte(END_OF_ENTRIES);
+            Collection<Path> folders = changedFolders.get();
+            output.writeInt(folders.size());
+            for (Path folder : folders)
+                output.writeUTF(requestsFolder.relativize(folder).toString());
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file           snapshot file.
+     * @param requestsFolder folder request paths are resolved against.
+     * @return snapshot read from the file, not complete, or {@code null} if file is not a valid snapshot.
+     */
+    @Nullable
+    public static RequestIndexSnapshot readFrom(@NonNull Path file, @NonNull Path requestsFolder) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream))) {
+            if (input.readInt() != FILE_MAGIC)
+                return null;
+            long watermark = input.readLong();
+            Map<Path, Map<Path, RequestFileIndex.IndexedRequest>> requestsByFolder = new HashMap<>();
+            for (byte status = input.readByte(); status != END_OF_ENTRIES; status = input.readByte()) {
+                if (status < UNKNOWN_STATUS || status > STATUSES.length)
+                    return null;
+                Path path = requestsFolder.resolve(input.readUTF());
+                requestsByFolder.computeIfAbsent(path.getParent(), folder -> new HashMap<>())
+                        .put(path, new RequestFileIndex.IndexedRequest(path,
+                                status == UNKNOWN_STATUS ? null : STATUSES[status - 1]));
+            }
+            int changedFolderCount = input.readInt();
+            if (changedFolderCount < 0)
+                return null;
+            Set<Path> changedFolders = new HashSet<>();
+            for (int i = 0; i < changedFolderCount; i++)
+                changedFolders.add(requestsFolder.resolve(input.readUTF()));
+            return new RequestIndexSnapshot(watermark, false, requestsByFolder, changedFolders);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
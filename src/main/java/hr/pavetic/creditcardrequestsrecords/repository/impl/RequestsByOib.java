@@ -0,0 +1,272 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import hr.pavetic.creditcardrequestsrecords.model.Oib;
+import org.springframework.lang.NonNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Indexed requests keyed by {@link Oib#pack(CharSequence) packed OIB}, held in
+ * open addressing hash tables of primitive {@code long} keys. A person takes
+ * a key slot (8 bytes) and a value slot holding array of their requests,
+ * instead of a boxed key, a map entry and a map of requests as in a
+ * {@link java.util.concurrent.ConcurrentHashMap}.
+ * <p>
+ * Keys are spread over segments, each guarded by its own read-write lock,
+ * so that writes of different people rarely contend.
+ *
+ * @implNote Tables use linear probing, and removal shifts following entries
+ * back instead of leaving tombstones. Request arrays are never modified once
+ * stored - they are replaced - so they can be read outside of the lock.
+ */
+public final class RequestsByOib {
+
+    private static final int SEGMENTS = 64;
+    private static final int SEGMENT_SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS);
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+    private static final RequestFileIndex.IndexedRequest[] NO_REQUESTS = new RequestFileIndex.IndexedRequest[0];
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    public RequestsByOib() {
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment();
+    }
+
+    /**
+     * @param oib packed OIB of the person.
+     * @return requests of the person, empty if there are none.
+     */
+    @NonNull
+    public List<RequestFileIndex.IndexedRequest> get(long oib) {
+        int hash = hash(oib);
+        return List.of(segmentOf(hash).get(oib, hash));
+    }
+
+    /**
+     * Adds the request, replacing the person's request of the same path.
+     *
+     * @param oib packed OIB of the person.
+     */
+    public void put(long oib, @NonNull RequestFileIndex.IndexedRequest request) {
+        int hash = hash(oib);
+        segmentOf(hash).put(oib, hash, request);
+    }
+
+    /**
+     * Removes the person's request of given path, if it is indexed.
+     *
+     * @param oib packed OIB of the person.
+     */
+    public void remove(long oib, @NonNull Path path) {
+        int hash = hash(oib);
+        segmentOf(hash).remove(oib, hash, path);
+    }
+
+    /**
+     * @return number of people with indexed requests.
+     */
+    public int people() {
+        int people = 0;
+        for (Segment segment : segments)
+            people += segment.people();
+        return people;
+    }
+
+    /**
+     * @return number of indexed requests.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.requests();
+        return size;
+    }
+
+    /**
+     * Iterates over requests of all people, a segment at a time. Iteration is
+     * weakly consistent - requests added or removed meanwhile may or may not
+     * be returned.
+     */
+    @NonNull
+    public Iterator<RequestFileIndex.IndexedRequest> iterator() {
+        return Arrays.stream(segments)
+                .flatMap(segment -> segment.values().stream())
+                .iterator();
+    }
+
+    @NonNull
+    private Segment segmentOf(int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+
+    private static int hash(long oib) {
+        // Packed OIBs are close to each other - spread them over the whole range
+        long mixed = oib * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ mixed >>> 32);
+    }
+
+    private static final class Segment {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private long[] keys = new long[INITIAL_SEGMENT_CAPACITY];
+        /**
+         * Requests of the person of the key in the same slot, {@code null} for an empty slot.
+         */
+        private RequestFileIndex.IndexedRequest[][] values = new RequestFileIndex.IndexedRequest[INITIAL_SEGMENT_CAPACITY][];
+        private int people;
+        private int requests;
+
+        @NonNull
+        RequestFileIndex.IndexedRequest[] get(long oib, int hash) {
+            lock.readLock().lock();
+            try {
+                int slot = slotOf(oib, hash);
+                return values[slot] != null ? values[slot] : NO_REQUESTS;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        void put(long oib, int hash, @NonNull RequestFileIndex.IndexedRequest request) {
+            lock.writeLock().lock();
+            try {
+                int slot = slotOf(oib, hash);
+                RequestFileIndex.IndexedRequest[] current = values[slot];
+                if (current == null) {
+                    keys[slot] = oib;
+                    values[slot] = new RequestFileIndex.IndexedRequest[]{request};
+                    people++;
+                    requests++;
+                    if (people > keys.length * 3 / 4)
+                        resize();
+                    return;
+                }
+                int index = indexOf(current, request.path());
+                RequestFileIndex.IndexedRequest[] updated = Arrays.copyOf(current,
+                        index >= 0 ? current.length : current.length + 1);
+                if (index < 0)
+                    requests++;
+                updated[index >= 0 ? index : current.length] = request;
+                values[slot] = updated;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void remove(long oib, int hash, @NonNull Path path) {
+            lock.writeLock().lock();
+            try {
+                int slot = slotOf(oib, hash);
+                RequestFileIndex.IndexedRequest[] current = values[slot];
+                if (current == null)
+                    return;
+                int index = indexOf(current, path);
+                if (index < 0)
+                    return;
+                requests--;
+                if (current.length > 1) {
+                    RequestFileIndex.IndexedRequest[] updated = new RequestFileIndex.IndexedRequest[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, index);
+                    System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+                    values[slot] = updated;
+                    return;
+                }
+                people--;
+                removeSlot(slot);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int people() {
+            lock.readLock().lock();
+            try {
+                return people;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        int requests() {
+            lock.readLock().lock();
+            try {
+                return requests;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        @NonNull
+        List<RequestFileIndex.IndexedRequest> values() {
+            lock.readLock().lock();
+            try {
+                List<RequestFileIndex.IndexedRequest> segmentRequests = new ArrayList<>(requests);
+                for (RequestFileIndex.IndexedRequest[] personRequests : values) {
+                    if (personRequests != null)
+                        segmentRequests.addAll(Arrays.asList(personRequests));
+                }
+                return segmentRequests;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        /**
+         * @return slot of the key, or empty slot where it belongs.
+         */
+        private int slotOf(long oib, int hash) {
+            int mask = keys.length - 1;
+            int slot = hash & mask;
+            while (values[slot] != null && keys[slot] != oib)
+                slot = slot + 1 & mask;
+            return slot;
+        }
+
+        /**
+         * Empties the slot, moving back following entries which would not be
+         * reachable from their home slot anymore.
+         */
+        private void removeSlot(int slot) {
+            int mask = keys.length - 1;
+            int gap = slot;
+            for (int next = gap + 1 & mask; values[next] != null; next = next + 1 & mask) {
+                int home = hash(keys[next]) & mask;
+                // Entry can fill the gap only if the gap is between its home slot and its slot
+                if ((next - home & mask) >= (next - gap & mask)) {
+                    keys[gap] = keys[next];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+            }
+            values[gap] = null;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            RequestFileIndex.IndexedRequest[][] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new RequestFileIndex.IndexedRequest[oldKeys.length * 2][];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] == null)
+                    continue;
+                int slot = slotOf(oldKeys[i], hash(oldKeys[i]));
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        private static int indexOf(@NonNull RequestFileIndex.IndexedRequest[] personRequests, @NonNull Path path) {
+            for (int i = 0; i < personRequests.length; i++) {
+                if (personRequests[i].path().equals(path))
+                    return i;
+            }
+            return -1;
+        }
+    }
+}
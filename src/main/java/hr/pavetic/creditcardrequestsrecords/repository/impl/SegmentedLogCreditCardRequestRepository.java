@@ -0,0 +1,800 @@
+package hr.pavetic.creditcardrequestsrecords.repository.impl;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Oib;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.util.Pair;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * {@link CreditCardRequestRepository} which stores credit card requests as
+ * records appended to rolling, size-capped segment files instead of one
+ * file per request.
+ * <p>
+ * Every write (creation or deactivation) appends a record holding the whole
+ * request entry, so the latest record of a request is its current state.
+ * Location of the latest record of each request is kept in an in-memory
+ * index by packed {@link Oib}, which is rebuilt by replaying segments on
+ * startup - so only requests of well-formed OIBs can be stored. Sealed
+ * segments are periodically compacted in the background, dropping records
+ * superseded by a later one.
+ * <p>
+ * Requests are identified by a logical path in the same form as the file
+ * based repository uses ({@code <requests-folder>/<oib>_<requestId>.txt}),
+ * even though no such file exists.
+ *
+ * @implNote Record layout: {@code int payloadLength, long requestId,
+ * byte[] payload, int crc32(requestId, payload)}, where payload is the
+ * entry encoded by {@link RequestEntryCodec}. Torn records at the end
+ * of a segment (e.g. after a crash) fail the checksum and are truncated
+ * on startup. Sealed segments are read through memory mapping, with
+ * entries parsed directly from the mapped buffer.
+ * <p>
+ * Writes are durable once they return. Concurrent writes are grouped by a
+ * {@link GroupCommitWriter}, so each group is synced with a single
+ * {@link FileChannel#force(boolean)}. Records are indexed only once synced.
+ */
+@Log4j2
+@Component
+@ConditionalOnProperty(name = "requests-store", havingValue = "log")
+@Timed(CreditCardRequestRepository.TIMER_NAME)
+public class SegmentedLogCreditCardRequestRepository implements CreditCardRequestRepository {
+
+    public static final String SEGMENTS_FOLDER = "log";
+    public static final String SEGMENT_FILE_EXTENSION = ".log";
+    private static final String COMPACTING_FILE_EXTENSION = ".compacting";
+
+    /**
+     * Payload length, request id and checksum.
+     */
+    private static final int RECORD_OVERHEAD = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int RECORD_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    /**
+     * Location of the latest record of a request.
+     */
+    private record RecordLocation(long segmentId, long offset, int length, @NonNull Status status) {
+    }
+
+    /**
+     * Latest record of a request, moved by compaction.
+     */
+    private record LiveRecord(@NonNull Oib oib, long requestId, @NonNull RecordLocation location) {
+    }
+
+    /**
+     * Record to append, holding either the request to encode or its already encoded entry.
+     *
+     * @param requestId id of the request, {@code null} to create a new request.
+     * @param personDto request to encode, {@code null} if entry is already encoded.
+     * @param entry     encoded entry, {@code null} if request is to be encoded.
+     */
+    private record Append(@Nullable Long requestId, @NonNull Oib oib, @NonNull Status status,
+                          @Nullable PersonDto personDto, @Nullable ByteBuffer entry) {
+
+        Append(@Nullable Long requestId, @NonNull PersonDto personDto) {
+            this(requestId, Oib.of(personDto.getOib()), personDto.getStatus(), personDto, null);
+        }
+
+        Append(long requestId, @NonNull Oib oib, @NonNull ByteBuffer entry) {
+            this(requestId, oib, RequestEntryCodec.decodeStatus(entry), null, entry);
+        }
+
+        int entryLength() {
+            return entry != null ? entry.remaining() : RequestEntryCodec.encodedLength(personDto);
+        }
+    }
+
+    private final Path requestsFolder;
+    private final Path segmentsFolder;
+    private final long segmentSize;
+    private final Duration compactionInterval;
+    private final Duration groupCommitWindow;
+    private final int groupCommitBatchSize;
+
+    /**
+     * OIB -> request id -> location of the latest record of the request.
+     */
+    private final Map<Oib, Map<Long, RecordLocation>> locationsByOib = new ConcurrentHashMap<>();
+
+    private final NavigableMap<Long, FileChannel> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * Lazily mapped sealed segments - their content does not change until compacted.
+     */
+    private final Map<Long, MappedByteBuffer> mappedSegments = new ConcurrentHashMap<>();
+
+    /**
+     * Guards segments from being replaced by compaction while they are read.
+     */
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+
+    /**
+     * Guards the active segment - there is always a single appending writer.
+     * Not a monitor, as writer blocks on I/O while holding it, which would
+     * pin the carrier of a virtual thread.
+     */
+    private final Lock writeLock = new ReentrantLock();
+
+    private volatile long activeSegmentId;
+    private FileChannel activeSegment;
+    private long activeSegmentPosition;
+    private long lastRequestId;
+
+    /**
+     * Reusable buffer and checksum records are encoded with, guarded by the write lock.
+     */
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(512);
+    private final CRC32 recordChecksum = new CRC32();
+
+    @Nullable
+    private ScheduledExecutorService compactionExecutor;
+
+    @Nullable
+    private GroupCommitWriter<Append, Long> groupCommitWriter;
+
+    public SegmentedLogCreditCardRequestRepository(
+            @Value("${requests-folder}") String requestsFolder,
+            @Value("${requests-log-segment-size:64MB}") DataSize segmentSize,
+            @Value("${requests-log-compaction-interval:10m}") Duration compactionInterval,
+            @Value("${requests-log-group-commit-window:1ms}") Duration groupCommitWindow,
+            @Value("${requests-log-group-commit-batch-size:256}") int groupCommitBatchSize) {
+        this.requestsFolder = Paths.get(requestsFolder);
+        this.segmentsFolder = this.requestsFolder.resolve(SEGMENTS_FOLDER);
+        if (segmentSize.toBytes() > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Segment size cannot be mapped into memory: " + segmentSize);
+        this.segmentSize = segmentSize.toBytes();
+        this.compactionInterval = compactionInterval;
+        this.groupCommitWindow = groupCommitWindow;
+        this.groupCommitBatchSize = groupCommitBatchSize;
+    }
+
+    /**
+     * Recovers index by replaying all segments, starts group commit writer
+     * and background compaction.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(segmentsFolder);
+        try (Stream<Path> files = Files.list(segmentsFolder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                // Compaction which did not finish - segments it was compacting are still intact
+                if (file.getFileName().toString().endsWith(COMPACTING_FILE_EXTENSION))
+                    Files.delete(file);
+            }
+        }
+
+        List<Long> segmentIds;
+        try (Stream<Path> files = Files.list(segmentsFolder)) {
+            segmentIds = files
+                    .map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_FILE_EXTENSION))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length())))
+                    .sorted()
+                    .toList();
+        }
+        for (long segmentId : segmentIds) {
+            FileChannel segment = FileChannel.open(segmentPath(segmentId),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(segmentId, segment);
+            replaySegment(segmentId, segment);
+        }
+
+        if (segments.isEmpty())
+            openNewActiveSegment(1);
+        else {
+            activeSegmentId = segments.lastKey();
+            activeSegment = segments.lastEntry().getValue();
+            activeSegmentPosition = activeSegment.size();
+        }
+        log.info("Credit card request log opened with {} segment(s) and {} person(s)",
+                segments.size(), locationsByOib.size());
+
+        groupCommitWriter = new GroupCommitWriter<>("request-log-writer", this::appendAll,
+                groupCommitWindow, groupCommitBatchSize);
+
+        compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "request-log-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactionExecutor.scheduleWithFixedDelay(this::compactSafely,
+                compactionInterval.toMillis(), compactionInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        // Pending writes are committed before segments are closed
+        if (groupCommitWriter != null)
+            groupCommitWriter.close();
+        if (compactionExecutor != null)
+            compactionExecutor.shutdownNow();
+        segmentsLock.writeLock().lock();
+        try {
+            for (FileChannel segment : segments.values())
+                segment.close();
+            segments.clear();
+            mappedSegments.clear();
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+    }
+
+    @NonNull
+    @Override
+    public Path writePersonDtoRequest(
+            @NonNull Path requestPath, @NonNull PersonDto personDto) throws IOException {
+        append(requestIdFromPath(requestPath), personDto);
+        return requestPath;
+    }
+
+    @NonNull
+    @Override
+    public Path writePersonDtoRequest(@NonNull PersonDto personDto) throws IOException {
+        long requestId = append(null, personDto);
+        return requestPath(personDto.getOib(), requestId);
+    }
+
+    @NonNull
+    @Override
+    public List<Path> writePersonDtoRequests(@NonNull List<PersonDto> personDtos) throws IOException {
+        // Given requests already form a batch, synced at once
+        List<Long> requestIds = appendAll(personDtos.stream()
+                .map(personDto -> new Append(null, personDto))
+                .toList());
+        List<Path> requestPaths = new ArrayList<>(personDtos.size());
+        for (int i = 0; i < personDtos.size(); i++)
+            requestPaths.add(requestPath(personDtos.get(i).getOib(), requestIds.get(i)));
+        return requestPaths;
+    }
+
+    @Override
+    public boolean isActiveRequestExist(@NonNull String oib) {
+        // Status of each request is known from the index, no need to read the log
+        return locationsFor(oib).values().stream()
+                .anyMatch(location -> location.status() == Status.ACTIVE);
+    }
+
+    @Override
+    public int countActiveRequests(@NonNull String oib) {
+        return (int) locationsFor(oib).values().stream()
+                .filter(location -> location.status() == Status.ACTIVE)
+                .count();
+    }
+
+    /**
+     * @implNote Request IDs are increasing, so the latest request is the one with the highest ID.
+     */
+    @Nullable
+    @Override
+    public Pair<Path, Status> findLatestRequest(@NonNull String oib) {
+        return locationsFor(oib).entrySet().stream()
+                .max(Map.Entry.comparingByKey())
+                .map(entry -> Pair.of(requestPath(oib, entry.getKey()), entry.getValue().status()))
+                .orElse(null);
+    }
+
+    @NonNull
+    @Override
+    public Set<String> findOibsWithActiveRequest(@NonNull Collection<String> oibs) {
+        return oibs.stream()
+                .filter(this::isActiveRequestExist)
+                .collect(Collectors.toSet());
+    }
+
+    @NonNull
+    @Override
+    public List<Pair<Path, PersonDto>> findActiveRequestsForPerson(@NonNull String oib) {
+        segmentsLock.readLock().lock();
+        try {
+            List<Pair<Path, PersonDto>> activeRequests = new ArrayList<>();
+            for (Map.Entry<Long, RecordLocation> entry : locationsFor(oib).entrySet()) {
+                if (entry.getValue().status() != Status.ACTIVE)
+                    continue;
+                PersonDto personDto = readActiveRecord(entry.getValue());
+                if (personDto != null)
+                    activeRequests.add(Pair.of(requestPath(oib, entry.getKey()), personDto));
+            }
+            return activeRequests;
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @implNote Entry of each active request is copied from its latest record with
+     * only the status byte changed, and appended as a new record of the same request.
+     * All records are appended in a single batch, synced at once.
+     */
+    @NonNull
+    @Override
+    public List<Path> deactivateActiveRequests(@NonNull String oib) throws IOException {
+        List<Append> appends = new ArrayList<>();
+        segmentsLock.readLock().lock();
+        try {
+            for (Map.Entry<Long, RecordLocation> entry : locationsFor(oib).entrySet()) {
+                if (entry.getValue().status() == Status.ACTIVE)
+                    appends.add(deactivation(entry.getKey(), Oib.of(oib), entry.getValue()));
+            }
+        } finally {
+            segmentsLock.readLock().unlock();
+        }
+        if (appends.isEmpty())
+            return List.of();
+
+        List<Path> requestPaths = new ArrayList<>(appends.size());
+        for (long requestId : appendAll(appends))
+            requestPaths.add(requestPath(oib, requestId));
+        return requestPaths;
+    }
+
+    /**
+     * @implNote Segments read lock is held only while reading requests of one person,
+     * so a long pass does not hold back compaction.
+     */
+    @Override
+    public void forEachActiveRequest(@NonNull RequestVisitor visitor) throws IOException {
+        for (Oib oib : locationsByOib.keySet()) {
+            List<Pair<Path, PersonDto>> activeRequests = findActiveRequestsForPerson(oib.toString());
+            for (Pair<Path, PersonDto> activeRequest : activeRequests)
+                visitor.visit(activeRequest.getFirst(), activeRequest.getSecond());
+        }
+    }
+
+    /**
+     * Returns segment files holding the latest state of person's requests.
+     */
+    @NonNull
+    @Override
+    public File[] findRequestFilesForPerson(@NonNull String oib) {
+        return locationsFor(oib).values().stream()
+                .map(RecordLocation::segmentId)
+                .distinct()
+                .map(segmentId -> segmentPath(segmentId).toFile())
+                .toArray(File[]::new);
+    }
+
+    /**
+     * Compacts sealed segments, dropping records superseded by a later record
+     * of the same request. Consecutive segments are merged as long as their
+     * live records fit into a single segment, so compacted segments never
+     * outgrow the segment size. Normally run in the background.
+     */
+    public void compact() throws IOException {
+        List<Long> sealedSegmentIds;
+        writeLock.lock();
+        try {
+            sealedSegmentIds = List.copyOf(segments.headMap(activeSegmentId, false).keySet());
+        } finally {
+            writeLock.unlock();
+        }
+        if (sealedSegmentIds.isEmpty())
+            return;
+
+        Set<Long> sealed = Set.copyOf(sealedSegmentIds);
+        Map<Long, List<LiveRecord>> liveRecordsBySegment = new HashMap<>();
+        locationsByOib.forEach((oib, locations) -> locations.forEach((requestId, location) -> {
+            if (sealed.contains(location.segmentId()))
+                liveRecordsBySegment.computeIfAbsent(location.segmentId(), key -> new ArrayList<>())
+                        .add(new LiveRecord(oib, requestId, location));
+        }));
+
+        List<Long> group = new ArrayList<>();
+        List<LiveRecord> groupRecords = new ArrayList<>();
+        long groupLiveBytes = 0;
+        for (long segmentId : sealedSegmentIds) {
+            List<LiveRecord> segmentRecords = liveRecordsBySegment.getOrDefault(segmentId, List.of());
+            long segmentLiveBytes = segmentRecords.stream().mapToLong(record -> record.location().length()).sum();
+            if (!group.isEmpty() && groupLiveBytes + segmentLiveBytes > segmentSize) {
+                compactGroup(group, groupRecords, groupLiveBytes);
+                group = new ArrayList<>();
+                groupRecords = new ArrayList<>();
+                groupLiveBytes = 0;
+            }
+            group.add(segmentId);
+            groupRecords.addAll(segmentRecords);
+            groupLiveBytes += segmentLiveBytes;
+        }
+        compactGroup(group, groupRecords, groupLiveBytes);
+    }
+
+    /**
+     * Compacts consecutive sealed segments into the last of them.
+     *
+     * @param segmentIds  ids of the segments, in order.
+     * @param liveRecords records of the segments which are not superseded.
+     * @param liveBytes   total length of live records.
+     */
+    private void compactGroup(@NonNull List<Long> segmentIds, @NonNull List<LiveRecord> liveRecords,
+                              long liveBytes) throws IOException {
+        long sealedBytes = 0;
+        for (long segmentId : segmentIds)
+            sealedBytes += segments.get(segmentId).size();
+        if (segmentIds.size() < 2 && liveBytes == sealedBytes)
+            return;
+
+        // Keep original order of records, so replay of compacted segment gives the same state
+        liveRecords.sort(Comparator
+                .comparingLong((LiveRecord record) -> record.location().segmentId())
+                .thenComparingLong(record -> record.location().offset()));
+
+        long targetSegmentId = segmentIds.get(segmentIds.size() - 1);
+        Path compactingPath = segmentsFolder.resolve(
+                segmentFileName(targetSegmentId) + COMPACTING_FILE_EXTENSION);
+        List<RecordLocation> compactedLocations = new ArrayList<>(liveRecords.size());
+        try (FileChannel compacting = FileChannel.open(compactingPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (LiveRecord record : liveRecords) {
+                RecordLocation location = record.location();
+                writeFully(compacting, recordBuffer(location), position);
+                compactedLocations.add(new RecordLocation(
+                        targetSegmentId, position, location.length(), location.status()));
+                position += location.length();
+            }
+            compacting.force(true);
+        }
+
+        segmentsLock.writeLock().lock();
+        try {
+            for (int i = 0; i < liveRecords.size(); i++) {
+                LiveRecord record = liveRecords.get(i);
+                Map<Long, RecordLocation> locations = locationsByOib.get(record.oib());
+                // Request could have been written again in the meantime - its location is then newer
+                if (locations != null)
+                    locations.replace(record.requestId(), record.location(), compactedLocations.get(i));
+            }
+
+            for (long segmentId : segmentIds) {
+                segments.remove(segmentId).close();
+                mappedSegments.remove(segmentId);
+            }
+            // Replace target segment first, so compacted records are never missing on crash
+            Files.move(compactingPath, segmentPath(targetSegmentId),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (long segmentId : segmentIds) {
+                if (segmentId != targetSegmentId)
+                    Files.delete(segmentPath(segmentId));
+            }
+            segments.put(targetSegmentId, FileChannel.open(segmentPath(targetSegmentId),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } finally {
+            segmentsLock.writeLock().unlock();
+        }
+        log.info("Compacted {} credit card request log segment(s): {} -> {} bytes",
+                segmentIds.size(), sealedBytes, liveBytes);
+    }
+
+    private void compactSafely() {
+        try {
+            compact();
+        } catch (IOException | RuntimeException e) {
+            log.error("Credit card request log compaction failed", e);
+        }
+    }
+
+    /**
+     * Appends record of the request through the group commit writer.
+     *
+     * @param requestId id of the request, {@code null} to create a new request.
+     * @return id of the request.
+     */
+    private long append(@Nullable Long requestId, @NonNull PersonDto personDto) throws IOException {
+        if (groupCommitWriter == null)
+            throw new IOException("Credit card request log is not open");
+        return groupCommitWriter.write(new Append(requestId, personDto));
+    }
+
+    /**
+     * Appends records to the active segment and syncs them. Records are
+     * gathered into a single buffer, written and synced at once (or once per
+     * segment, if the active segment fills up in between), and indexed
+     * only after that.
+     *
+     * @return ids of the requests, in order of given records.
+     */
+    @NonNull
+    private List<Long> appendAll(@NonNull List<Append> appends) throws IOException {
+        writeLock.lock();
+        try {
+            int batchLength = 0;
+            for (Append append : appends)
+                batchLength += RECORD_OVERHEAD + append.entryLength();
+            ByteBuffer batch = ByteBuffer.allocate(batchLength);
+
+            List<Long> ids = new ArrayList<>(appends.size());
+            List<RecordLocation> locations = new ArrayList<>(appends.size());
+            for (Append append : appends) {
+                long id = append.requestId() != null ? append.requestId() : nextRequestId();
+                ByteBuffer record = encodeRecord(id, append);
+                long offset = activeSegmentPosition + batch.position();
+                if (offset > 0 && offset + record.remaining() > segmentSize) {
+                    writeAndSync(batch);
+                    openNewActiveSegment(activeSegmentId + 1);
+                    offset = 0;
+                }
+                locations.add(new RecordLocation(activeSegmentId, offset, record.limit(), append.status()));
+                batch.put(record);
+                ids.add(id);
+            }
+            writeAndSync(batch);
+
+            for (int i = 0; i < appends.size(); i++)
+                locationsByOib.computeIfAbsent(appends.get(i).oib(), key -> new ConcurrentHashMap<>())
+                        .put(ids.get(i), locations.get(i));
+            return ids;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Writes gathered records to the end of the active segment and syncs
+     * the segment. Batch buffer is cleared for the next records.
+     */
+    private void writeAndSync(@NonNull ByteBuffer batch) throws IOException {
+        writeFully(activeSegment, batch.flip(), activeSegmentPosition);
+        activeSegmentPosition += batch.limit();
+        activeSegment.force(false);
+        batch.clear();
+    }
+
+    /**
+     * Generates unique request id. Id is epoch millis of the creation, as long as
+     * there are no two requests created within the same millisecond.
+     */
+    private long nextRequestId() {
+        lastRequestId = Math.max(lastRequestId + 1, Instant.now().toEpochMilli());
+        return lastRequestId;
+    }
+
+    private void openNewActiveSegment(long segmentId) throws IOException {
+        activeSegment = FileChannel.open(segmentPath(segmentId),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSegmentId = segmentId;
+        activeSegmentPosition = 0;
+        segments.put(segmentId, activeSegment);
+    }
+
+    /**
+     * Replays all records of the segment into the index. Segment is truncated
+     * after the last valid record.
+     */
+    private void replaySegment(long segmentId, @NonNull FileChannel segment) throws IOException {
+        long size = segment.size();
+        if (size > Integer.MAX_VALUE)
+            throw new IOException("Credit card request log segment " + segmentId
+                    + " is too large to be mapped into memory: " + size + " bytes");
+        MappedByteBuffer mapped = segment.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long position = 0;
+        while (position + RECORD_OVERHEAD <= size) {
+            int payloadLength = mapped.getInt(Math.toIntExact(position));
+            if (payloadLength <= 0 || position + RECORD_OVERHEAD + payloadLength > size)
+                break;
+
+            ByteBuffer record = mapped.slice(Math.toIntExact(position), RECORD_OVERHEAD + payloadLength);
+            ByteBuffer payload = recordPayload(record);
+            if (payload == null)
+                break;
+            PersonDto personDto = RequestEntryCodec.decode(payload);
+
+            long requestId = record.getLong(Integer.BYTES);
+            lastRequestId = Math.max(lastRequestId, requestId);
+            Oib oib = Oib.parse(personDto.getOib());
+            if (oib != null)
+                locationsByOib.computeIfAbsent(oib, key -> new ConcurrentHashMap<>())
+                        .put(requestId, new RecordLocation(segmentId, position, record.limit(), personDto.getStatus()));
+            else
+                log.warn("Credit card request log segment {} has record of malformed OIB at {}, skipping it",
+                        segmentId, position);
+            position += record.limit();
+        }
+
+        if (position < size) {
+            log.warn("Credit card request log segment {} has invalid record at {}, truncating {} bytes",
+                    segmentId, position, size - position);
+            segment.truncate(position);
+        }
+    }
+
+    /**
+     * Reads the record, parsing its entry only if it is active.
+     *
+     * @return entry of the record if it is active, otherwise {@code null}.
+     */
+    @Nullable
+    private PersonDto readActiveRecord(@NonNull RecordLocation location) {
+        try {
+            ByteBuffer payload = recordPayload(recordBuffer(location));
+            if (payload == null)
+                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                        "Request could not be read properly - malformed entry");
+            return RequestEntryCodec.decodeActive(payload);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "There was a problem reading credit card request", e);
+        }
+    }
+
+    /**
+     * Copies entry of the latest record of the request with status set to inactive.
+     * Must be called while holding the segments read lock.
+     */
+    @NonNull
+    private Append deactivation(long requestId, @NonNull Oib oib, @NonNull RecordLocation location)
+            throws IOException {
+        ByteBuffer payload = recordPayload(recordBuffer(location));
+        if (payload == null)
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
+                    "Request could not be read properly - malformed entry");
+        if (!RequestEntryCodec.isBinary(payload)) {
+            PersonDto personDto = RequestEntryCodec.decode(payload);
+            personDto.setStatus(Status.INACTIVE);
+            return new Append(requestId, personDto);
+        }
+        ByteBuffer entry = ByteBuffer.allocate(payload.remaining()).put(payload).flip();
+        entry.put(RequestEntryCodec.STATUS_OFFSET, RequestEntryCodec.encodeStatus(Status.INACTIVE));
+        return new Append(requestId, oib, entry);
+    }
+
+    /**
+     * Returns buffer holding the whole record. Records of sealed segments are sliced
+     * from the mapped segment, while active segment is read as it is still growing.
+     */
+    @NonNull
+    private ByteBuffer recordBuffer(@NonNull RecordLocation location) throws IOException {
+        long segmentId = location.segmentId();
+        if (segmentId < activeSegmentId) {
+            MappedByteBuffer mapped = mappedSegments.get(segmentId);
+            if (mapped == null) {
+                FileChannel segment = segments.get(segmentId);
+                mapped = segment.map(FileChannel.MapMode.READ_ONLY, 0, segment.size());
+                mappedSegments.put(segmentId, mapped);
+            }
+            // Segments are capped in size, so offsets within them fit into a mapped buffer
+            return mapped.slice(Math.toIntExact(location.offset()), location.length());
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(location.length());
+        readFully(segments.get(segmentId), record, location.offset());
+        return record;
+    }
+
+    /**
+     * Encodes the record into the reusable record buffer of the writer.
+     * Must be called while holding the write lock.
+     *
+     * @return record buffer, ready to be written.
+     */
+    @NonNull
+    private ByteBuffer encodeRecord(long requestId, @NonNull Append append) {
+        int payloadLength = append.entryLength();
+        if (writeBuffer.capacity() < RECORD_OVERHEAD + payloadLength)
+            writeBuffer = ByteBuffer.allocate(RECORD_OVERHEAD + payloadLength);
+
+        writeBuffer.clear();
+        writeBuffer.putInt(payloadLength).putLong(requestId);
+        if (append.entry() != null)
+            writeBuffer.put(append.entry().duplicate());
+        else
+            RequestEntryCodec.encode(append.personDto(), writeBuffer);
+        recordChecksum.reset();
+        recordChecksum.update(writeBuffer.array(), Integer.BYTES, Long.BYTES + payloadLength);
+        writeBuffer.putInt((int) recordChecksum.getValue());
+        return writeBuffer.flip();
+    }
+
+    /**
+     * Verifies checksum of the record.
+     *
+     * @param record buffer holding the whole record, starting at its position.
+     * @return payload (entry) of the record, or {@code null} if record is corrupted.
+     */
+    @Nullable
+    private static ByteBuffer recordPayload(@NonNull ByteBuffer record) {
+        int start = record.position();
+        int payloadLength = record.getInt(start);
+        CRC32 crc = new CRC32();
+        crc.update(record.duplicate()
+                .position(start + Integer.BYTES)
+                .limit(start + RECORD_HEADER_SIZE + payloadLength));
+        if ((int) crc.getValue() != record.getInt(start + RECORD_HEADER_SIZE + payloadLength))
+            return null;
+        return record.duplicate()
+                .position(start + RECORD_HEADER_SIZE)
+                .limit(start + RECORD_HEADER_SIZE + payloadLength);
+    }
+
+    @NonNull
+    private Map<Long, RecordLocation> locationsFor(@NonNull String oib) {
+        Oib key = Oib.parse(oib);
+        if (key == null)
+            return Map.of();
+        return locationsByOib.getOrDefault(key, Map.of());
+    }
+
+    @NonNull
+    private Path requestPath(@NonNull String oib, long requestId) {
+        return requestsFolder.resolve(oib + "_" + requestId + RequestFolderLayout.REQUEST_FILE_EXTENSION);
+    }
+
+    private static long requestIdFromPath(@NonNull Path requestPath) {
+        String fileName = requestPath.getFileName().toString();
+        int separatorIndex = fileName.indexOf('_');
+        if (separatorIndex < 0 || !fileName.endsWith(RequestFolderLayout.REQUEST_FILE_EXTENSION))
+            throw new IllegalArgumentException("Not a credit card request path: " + requestPath);
+        return Long.parseLong(fileName.substring(separatorIndex + 1,
+                fileName.length() - RequestFolderLayout.REQUEST_FILE_EXTENSION.length()));
+    }
+
+    @NonNull
+    private Path segmentPath(long segmentId) {
+        return segmentsFolder.resolve(segmentFileName(segmentId));
+    }
+
+    @NonNull
+    private static String segmentFileName(long segmentId) {
+        return String.format("%020d%s", segmentId, SEGMENT_FILE_EXTENSION);
+    }
+
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new IOException("Unexpected end of credit card request log segment");
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+}
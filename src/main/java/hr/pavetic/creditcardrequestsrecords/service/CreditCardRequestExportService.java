@@ -0,0 +1,12 @@
+package hr.pavetic.creditcardrequestsrecords.service;
+
+import hr.pavetic.creditcardrequestsrecords.dto.RequestExportFormat;
+import org.springframework.lang.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+public interface CreditCardRequestExportService {
+    long exportActiveCreditCardRequests(@NonNull RequestExportFormat format,
+                                        @NonNull OutputStream output) throws IOException;
+}
@@ -1,10 +1,26 @@
 package hr.pavetic.creditcardrequestsrecords.service;
 
+import hr.pavetic.creditcardrequestsrecords.dto.CreditCardRequestOutcome;
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
 import org.springframework.lang.NonNull;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface CreditCardRequestService {
     boolean createCreditCardRequest(@NonNull PersonDto personDto);
+    @NonNull
+    Map<String, CreditCardRequestOutcome> createCreditCardRequests(@NonNull Collection<String> oibs);
     int deactivateCreditCardRequest(@NonNull String oib);
+    void scheduleCreditCardRequestDeactivation(@NonNull String oib);
+
+    /**
+     * Locks credit card requests of the person until the current transaction
+     * completes. Must be taken before the person's record is changed, as request
+     * operations lock them in that order.
+     *
+     * @param oib oib of the person.
+     */
+    void lockCreditCardRequests(@NonNull String oib);
     String completeCreditCardRequest(@NonNull PersonDto personDto);
 }
@@ -0,0 +1,11 @@
+package hr.pavetic.creditcardrequestsrecords.service;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonImportResultDto;
+import org.springframework.lang.NonNull;
+
+import java.io.InputStream;
+
+public interface PersonImportService {
+    @NonNull
+    PersonImportResultDto importPersons(@NonNull InputStream persons);
+}
@@ -0,0 +1,97 @@
+package hr.pavetic.creditcardrequestsrecords.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.dto.RequestExportFormat;
+import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
+import hr.pavetic.creditcardrequestsrecords.service.CreditCardRequestExportService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.lang.NonNull;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+@RequiredArgsConstructor
+@Service
+@Log4j2
+public class CreditCardRequestExportServiceImpl implements CreditCardRequestExportService {
+
+    private static final String CSV_HEADER = "oib,name,lastName,status";
+
+    private final CreditCardRequestRepository creditCardRequestRepository;
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Writes all active credit card requests into given stream, one per line.
+     *
+     * @implSpec Requests are written as they are read in a single pass over the
+     * request store, through a fixed size buffer - so memory used does not grow
+     * with number of requests, and a slow reader slows down the pass. Requests
+     * accepted but not yet written into the store are not exported.
+     *
+     * @param format format of exported requests.
+     * @param output stream to write into, left open.
+     * @return number of exported requests.
+     */
+    @Override
+    public long exportActiveCreditCardRequests(@NonNull RequestExportFormat format,
+                                               @NonNull OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        long[] exported = {0};
+        if (format == RequestExportFormat.NDJSON) {
+            SequenceWriter records = objectMapper.writer()
+                    .withRootValueSeparator("\n")
+                    .writeValues(writer);
+            creditCardRequestRepository.forEachActiveRequest((requestPath, personDto) -> {
+                records.write(personDto);
+                exported[0]++;
+            });
+            if (exported[0] > 0)
+                writer.write('\n');
+            // Sequence writer is not closed, as it would close the output
+            records.flush();
+        } else {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+            creditCardRequestRepository.forEachActiveRequest((requestPath, personDto) -> {
+                writeCsvRecord(writer, personDto);
+                exported[0]++;
+            });
+        }
+        writer.flush();
+        log.info("Exported {} active credit card request(s) as {}", exported[0], format);
+        return exported[0];
+    }
+
+    private static void writeCsvRecord(@NonNull Writer writer, @NonNull PersonDto personDto) throws IOException {
+        writeCsvField(writer, personDto.getOib());
+        writer.write(',');
+        writeCsvField(writer, personDto.getName());
+        writer.write(',');
+        writeCsvField(writer, personDto.getLastName());
+        writer.write(',');
+        writeCsvField(writer, personDto.getStatus().name());
+        writer.write('\n');
+    }
+
+    /**
+     * Writes the field, quoted if it contains a separator, quote or line break (RFC 4180).
+     */
+    private static void writeCsvField(@NonNull Writer writer, @NonNull String field) throws IOException {
+        if (field.chars().noneMatch(c -> c == ',' || c == '"' || c == '\n' || c == '\r')) {
+            writer.write(field);
+            return;
+        }
+        writer.write('"');
+        writer.write(field.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -1,92 +1,362 @@
 package hr.pavetic.creditcardrequestsrecords.service.impl;
 
+import hr.pavetic.creditcardrequestsrecords.config.CacheConfig;
+import hr.pavetic.creditcardrequestsrecords.dto.CreditCardRequestOutcome;
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Oib;
+import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOperation;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOutboxEntry;
 import hr.pavetic.creditcardrequestsrecords.model.Status;
 import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
 import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import hr.pavetic.creditcardrequestsrecords.repository.RequestOutboxRepository;
 import hr.pavetic.creditcardrequestsrecords.service.CreditCardRequestService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.data.util.Pair;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.io.IOException;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
+/**
+ * Credit card request operations are not written to {@link CreditCardRequestRepository}
+ * directly, as it is not covered by database transaction. They are written into
+ * the request outbox, in the same transaction as the {@link Person} status change,
+ * and applied to the repository by {@link RequestOutboxRelay} once committed.
+ * Pending outbox entries are taken into account by every check of person's requests.
+ */
 @RequiredArgsConstructor
 @Service
 @Log4j2
 public class CreditCardRequestServiceImpl implements CreditCardRequestService {
+    /**
+     * Number of stripes of {@link #oibLocks} - high enough that
+     * requests of different people rarely contend.
+     */
+    private static final int OIB_LOCK_STRIPES = 1024;
+
+    /**
+     * Number of people processed together by bulk operations - bounds
+     * the size of {@code IN} lists.
+     */
+    private static final int BULK_CHUNK_SIZE = 500;
+
     private final CreditCardRequestRepository creditCardRequestRepository;
     private final PersonRepository personRepository;
+    private final RequestOutboxRepository requestOutboxRepository;
+    private final RequestOutboxRelay requestOutboxRelay;
+    private final CacheManager cacheManager;
+    private final TransactionTemplate transactionTemplate;
+    /**
+     * Guards check-then-write sequences on credit card requests of a person. Held until
+     * the transaction completes, so outbox entries it wrote are visible to the next holder.
+     * Keyed by packed {@link Oib}, malformed OIBs share a single stripe.
+     */
+    private final StripedLock oibLocks = new StripedLock(OIB_LOCK_STRIPES);
 
     @Transactional
+    @CacheEvict(cacheNames = CacheConfig.PERSONS_CACHE, key = "#personDto.oib")
     @Override
     public boolean createCreditCardRequest(@NonNull PersonDto personDto) {
         personDto.setStatus(Status.ACTIVE);
 
-        int updateCount = personRepository.updateStatusByOib(Status.ACTIVE, personDto.getOib());
-        // If no people row are updated - it means person with oib does not exist
-        if (updateCount < 1)
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
-                    "The person you want to create a credit card for does not exist");
-
+        Runnable unlock = lockUntilCompletion(List.of(oibLocks.forKey(Oib.pack(personDto.getOib()))));
         try {
-            // Check if active request already exist - only 1 active request is allowed
-            boolean isActiveRequestExist = creditCardRequestRepository.isActiveRequestExist(personDto.getOib());
+            // Check if active request already exist - only 1 active request is allowed.
+            // Checked first, as it stops at the first active request and spares
+            // rejected requests the status update
+            boolean isActiveRequestExist = isActiveRequestExist(personDto.getOib());
             if (isActiveRequestExist)
                 throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                         "Credit card is already being made for given person");
 
+            int updateCount = personRepository.updateStatusByOib(Status.ACTIVE, personDto.getOib());
+            // If no people row are updated - it means person with oib does not exist
+            if (updateCount < 1)
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "The person you want to create a credit card for does not exist");
+
             // No active requests for given person found --> create new request
-            Path requestPath = creditCardRequestRepository.writePersonDtoRequest(personDto);
-            log.info("New credit card request created: {}", requestPath);
-        } catch (IOException e) {
-            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                    "There was a problem creating credit card request", e);
+            requestOutboxRepository.save(RequestOutboxEntry.create(personDto));
+            relayAfterCommit();
+            log.info("New credit card request accepted for OIB: {}", personDto.getOib());
+        } finally {
+            unlock.run();
         }
         return true;
     }
 
+    /**
+     * Bulk variant of {@link #createCreditCardRequest(PersonDto)}, creating
+     * requests from person data in the record.
+     *
+     * @implSpec People are processed in chunks, each in its own transaction
+     * holding locks of only its people. For each chunk, people are loaded with
+     * a single query, active requests are checked in one repository pass,
+     * statuses are updated with a single update and all new requests are
+     * written into the outbox in one batch. If a chunk fails, requests of
+     * chunks before it stay created.
+     *
+     * @param oibs OIBs of people to create credit card requests for.
+     * @return outcome for each of distinct given OIBs, in order given.
+     */
+    @NonNull
+    @Override
+    public Map<String, CreditCardRequestOutcome> createCreditCardRequests(@NonNull Collection<String> oibs) {
+        if (oibs.stream().anyMatch(Objects::isNull))
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "OIB cannot be null or blank");
+
+        Map<String, CreditCardRequestOutcome> outcomes = new LinkedHashMap<>();
+        for (String oib : oibs) {
+            if (outcomes.containsKey(oib))
+                continue;
+            // Placeholder keeps the given order, actual outcome is set once chunk is processed
+            outcomes.put(oib, Oib.pack(oib) != Oib.INVALID
+                    ? CreditCardRequestOutcome.PERSON_NOT_FOUND
+                    : CreditCardRequestOutcome.INVALID_OIB);
+        }
+        List<String> validOibs = outcomes.entrySet().stream()
+                .filter(entry -> entry.getValue() == CreditCardRequestOutcome.PERSON_NOT_FOUND)
+                .map(Map.Entry::getKey)
+                .toList();
+
+        for (int from = 0; from < validOibs.size(); from += BULK_CHUNK_SIZE) {
+            List<String> chunk = validOibs.subList(from, Math.min(from + BULK_CHUNK_SIZE, validOibs.size()));
+            transactionTemplate.executeWithoutResult(status -> {
+                // Locks of the chunk are taken at once, in their order, as they are held until commit
+                Runnable unlock = lockUntilCompletion(oibLocks.forKeys(
+                        chunk.stream().mapToLong(Oib::pack).toArray()));
+                try {
+                    createCreditCardRequestsChunk(chunk, outcomes);
+                } finally {
+                    unlock.run();
+                }
+            });
+        }
+        log.info("Credit card requests created in bulk: {} of {}", outcomes.values().stream()
+                .filter(outcome -> outcome == CreditCardRequestOutcome.CREATED).count(), outcomes.size());
+        return outcomes;
+    }
+
+    private void createCreditCardRequestsChunk(@NonNull List<String> oibs,
+                                               @NonNull Map<String, CreditCardRequestOutcome> outcomes) {
+        List<Person> people = personRepository.findAllById(oibs);
+        Set<String> oibsWithActiveRequest = findOibsWithActiveRequest(
+                people.stream().map(Person::getOib).toList());
+
+        List<PersonDto> newRequests = new ArrayList<>(people.size());
+        for (Person person : people) {
+            if (oibsWithActiveRequest.contains(person.getOib())) {
+                outcomes.put(person.getOib(), CreditCardRequestOutcome.ALREADY_ACTIVE);
+                continue;
+            }
+            PersonDto personDto = new PersonDto(person);
+            personDto.setStatus(Status.ACTIVE);
+            newRequests.add(personDto);
+        }
+        if (newRequests.isEmpty())
+            return;
+
+        personRepository.updateStatusByOibIn(Status.ACTIVE,
+                newRequests.stream().map(PersonDto::getOib).toList());
+        Cache personsCache = cacheManager.getCache(CacheConfig.PERSONS_CACHE);
+        if (personsCache != null)
+            newRequests.forEach(personDto -> personsCache.evict(personDto.getOib()));
+        requestOutboxRepository.saveAll(newRequests.stream().map(RequestOutboxEntry::create).toList());
+        relayAfterCommit();
+        newRequests.forEach(personDto -> outcomes.put(personDto.getOib(), CreditCardRequestOutcome.CREATED));
+    }
+
+    /**
+     * Deactivates all active requests of the person once the transaction commits.
+     *
+     * @return number of requests which are deactivated.
+     */
+    @Transactional
     @Override
     public int deactivateCreditCardRequest(@NonNull String oib) {
-        List<Pair<Path, PersonDto>> activeRequestFilesForPerson = creditCardRequestRepository
-                .findActiveRequestsForPerson(oib);
-        for (Pair<Path, PersonDto> pathPersonDtoPair : activeRequestFilesForPerson) {
-            pathPersonDtoPair.getSecond().setStatus(Status.INACTIVE);
-            try {
-                Path requestPath = creditCardRequestRepository.writePersonDtoRequest(
-                        pathPersonDtoPair.getFirst(), pathPersonDtoPair.getSecond());
-                log.info("Credit card record deactivated: {}", requestPath);
-            } catch (IOException e) {
-                throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,
-                        "There was a problem updating credit card request status", e);
+        Runnable unlock = lockUntilCompletion(List.of(oibLocks.forKey(Oib.pack(oib))));
+        try {
+            int activeRequestsCount = countActiveRequests(oib);
+            if (activeRequestsCount > 0) {
+                requestOutboxRepository.save(RequestOutboxEntry.deactivate(oib));
+                relayAfterCommit();
+                log.info("Credit card request(s) of OIB {} accepted for deactivation: {}", oib, activeRequestsCount);
             }
+            return activeRequestsCount;
+        } finally {
+            unlock.run();
         }
-        return activeRequestFilesForPerson.size();
     }
 
+    /**
+     * Deactivates all requests of the person once the transaction commits, without
+     * checking which of them are active - so request repository is not touched
+     * before the commit.
+     */
     @Transactional
     @Override
+    public void scheduleCreditCardRequestDeactivation(@NonNull String oib) {
+        Runnable unlock = lockUntilCompletion(List.of(oibLocks.forKey(Oib.pack(oib))));
+        try {
+            requestOutboxRepository.save(RequestOutboxEntry.deactivate(oib));
+            relayAfterCommit();
+        } finally {
+            unlock.run();
+        }
+    }
+
+    /**
+     * Locks requests of the person until the transaction completes.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Override
+    public void lockCreditCardRequests(@NonNull String oib) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+            throw new IllegalStateException("Credit card requests can be locked only within a transaction");
+        lockUntilCompletion(List.of(oibLocks.forKey(Oib.pack(oib))));
+    }
+
+    /**
+     * @implNote Requests are locked before the status update, in the same order
+     * as by {@link #createCreditCardRequest(PersonDto)}, so that the two cannot
+     * wait on each other's lock of the person.
+     */
+    @Transactional
+    @CacheEvict(cacheNames = CacheConfig.PERSONS_CACHE, key = "#personDto.oib")
+    @Override
     public String completeCreditCardRequest(@NonNull PersonDto personDto) {
         String oib = personDto.getOib();
 
-        int updateCount = personRepository.updateStatusByOib(Status.INACTIVE, oib);
-        // If no people row are updated - it means person with oib does not exist
-        if (updateCount < 1)
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND,
-                    "The person you want to complete a credit card request does not exist");
+        int deactivatedRequestsCount;
+        Runnable unlock = lockUntilCompletion(List.of(oibLocks.forKey(Oib.pack(oib))));
+        try {
+            int updateCount = personRepository.updateStatusByOib(Status.INACTIVE, oib);
+            // If no people row are updated - it means person with oib does not exist
+            if (updateCount < 1)
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "The person you want to complete a credit card request does not exist");
 
-        int deactivatedRequestsCount = deactivateCreditCardRequest(oib);
+            deactivatedRequestsCount = deactivateCreditCardRequest(oib);
+        } finally {
+            unlock.run();
+        }
         log.info("Credit card request(s) completed: " + deactivatedRequestsCount);
         if (deactivatedRequestsCount > 0)
             return "Credit card request(s) completed: " + deactivatedRequestsCount;
         else
             return "No credit card requests to complete for given person.";
     }
+
+    /**
+     * Returns whether person has an active request, once pending outbox entries are applied.
+     */
+    private boolean isActiveRequestExist(@NonNull String oib) {
+        List<RequestOperation> pendingOperations = requestOutboxRepository.findPendingOperations(oib);
+        if (!pendingOperations.isEmpty())
+            return pendingOperations.get(pendingOperations.size() - 1) == RequestOperation.CREATE;
+        return creditCardRequestRepository.isActiveRequestExist(oib);
+    }
+
+    /**
+     * Bulk variant of {@link #isActiveRequestExist(String)}.
+     */
+    @NonNull
+    private Set<String> findOibsWithActiveRequest(@NonNull List<String> oibs) {
+        // Latest pending operation decides, as entries are applied in order
+        Map<String, RequestOperation> latestPendingOperations = new HashMap<>();
+        for (RequestOutboxEntry entry : requestOutboxRepository.findPendingByOibIn(oibs))
+            latestPendingOperations.put(entry.getOib(), entry.getOperation());
+
+        Set<String> oibsWithActiveRequest = new HashSet<>();
+        latestPendingOperations.forEach((oib, operation) -> {
+            if (operation == RequestOperation.CREATE)
+                oibsWithActiveRequest.add(oib);
+        });
+        List<String> oibsWithoutPending = oibs.stream()
+                .filter(oib -> !latestPendingOperations.containsKey(oib))
+                .toList();
+        if (!oibsWithoutPending.isEmpty())
+            oibsWithActiveRequest.addAll(creditCardRequestRepository.findOibsWithActiveRequest(oibsWithoutPending));
+        return oibsWithActiveRequest;
+    }
+
+    /**
+     * Returns number of active requests of the person, once pending outbox entries are applied.
+     */
+    private int countActiveRequests(@NonNull String oib) {
+        List<RequestOperation> pendingOperations = requestOutboxRepository.findPendingOperations(oib);
+        int lastDeactivation = pendingOperations.lastIndexOf(RequestOperation.DEACTIVATE);
+        boolean createPending = pendingOperations.subList(lastDeactivation + 1, pendingOperations.size())
+                .contains(RequestOperation.CREATE);
+        if (lastDeactivation >= 0)
+            return createPending ? 1 : 0;
+        int activeRequestsCount = creditCardRequestRepository.countActiveRequests(oib);
+        // Pending request is not created if person already has an active one
+        return createPending ? Math.max(activeRequestsCount, 1) : activeRequestsCount;
+    }
+
+    /**
+     * Acquires given locks and holds them until the current transaction completes.
+     * Without a transaction (e.g. when called directly), locks are held until
+     * returned action is run.
+     *
+     * @return action to run once guarded operation is done.
+     */
+    @NonNull
+    private static Runnable lockUntilCompletion(@NonNull List<Lock> locks) {
+        locks.forEach(Lock::lock);
+        Runnable unlockAll = () -> {
+            for (int i = locks.size() - 1; i >= 0; i--)
+                locks.get(i).unlock();
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive())
+            return unlockAll;
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                unlockAll.run();
+            }
+        });
+        return () -> {
+        };
+    }
+
+    /**
+     * Wakes up the outbox relay once the current transaction commits, or right
+     * away without a transaction.
+     */
+    private void relayAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            requestOutboxRelay.wakeUp();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                requestOutboxRelay.wakeUp();
+            }
+        });
+    }
 }
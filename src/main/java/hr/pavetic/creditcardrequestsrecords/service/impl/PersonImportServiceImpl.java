@@ -0,0 +1,162 @@
+package hr.pavetic.creditcardrequestsrecords.service.impl;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hr.pavetic.creditcardrequestsrecords.config.CacheConfig;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonImportResultDto;
+import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import hr.pavetic.creditcardrequestsrecords.service.PersonImportService;
+import hr.pavetic.creditcardrequestsrecords.service.PersonService;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@RequiredArgsConstructor
+@Service
+@Log4j2
+public class PersonImportServiceImpl implements PersonImportService {
+
+    private final PersonRepository personRepository;
+
+    private final PersonService personService;
+
+    private final ObjectMapper objectMapper;
+
+    private final Validator validator;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final CacheManager cacheManager;
+
+    @Value("${person-import-chunk-size:500}")
+    private final int chunkSize;
+
+    /**
+     * Imports people from given JSON array or newline delimited JSON,
+     * creating each {@link Person} with {@link Status#INACTIVE}, same as
+     * {@link PersonService#createPerson(PersonDto)}.
+     *
+     * @implSpec Records are read one by one from the stream and inserted in
+     * chunks, each chunk in its own transaction using JDBC batching. If a
+     * chunk fails due to existing person, its records are inserted one by one
+     * so only conflicting records are rejected. If the stream is malformed,
+     * records preceding the malformed one are kept.
+     *
+     * @param persons stream of {@link PersonDto} records.
+     * @return number of created people and reasons of rejected records.
+     */
+    @NonNull
+    @Override
+    public PersonImportResultDto importPersons(@NonNull InputStream persons) {
+        PersonImportResultDto result = new PersonImportResultDto();
+        List<Person> chunk = new ArrayList<>(chunkSize);
+        List<Long> chunkIndexes = new ArrayList<>(chunkSize);
+        Set<String> chunkOibs = new HashSet<>();
+        long index = 0;
+        // Root-level JSON array is unwrapped, so both formats read the same way
+        try (MappingIterator<PersonDto> records = objectMapper.readerFor(PersonDto.class).readValues(persons)) {
+            for (; records.hasNextValue(); index++) {
+                PersonDto personDto = records.nextValue();
+                if (personDto == null) {
+                    reject(result, index, null, "Person cannot be null");
+                    continue;
+                }
+                String reason = validate(personDto);
+                if (reason == null && !chunkOibs.add(personDto.getOib()))
+                    reason = "Person with given OIB already exists in record";
+                if (reason != null) {
+                    reject(result, index, personDto.getOib(), reason);
+                    continue;
+                }
+
+                chunk.add(personDto.toDomain(Status.INACTIVE));
+                chunkIndexes.add(index);
+                if (chunk.size() == chunkSize) {
+                    insertChunk(result, chunk, chunkIndexes);
+                    chunkOibs.clear();
+                }
+            }
+        } catch (IOException e) {
+            // Keep records preceding the malformed one, so import can be resumed from it
+            insertChunk(result, chunk, chunkIndexes);
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Malformed person at record " + index + ", " + result.getCreated()
+                            + " person(s) imported before it", e);
+        }
+        insertChunk(result, chunk, chunkIndexes);
+        log.info("Person import finished: {} created, {} rejected", result.getCreated(), result.getRejected());
+        return result;
+    }
+
+    @Nullable
+    private String validate(@NonNull PersonDto personDto) {
+        Set<ConstraintViolation<PersonDto>> violations = validator.validate(personDto);
+        if (violations.isEmpty())
+            return null;
+        return violations.stream()
+                .map(ConstraintViolation::getMessage)
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Inserts the chunk and clears it.
+     */
+    private void insertChunk(@NonNull PersonImportResultDto result,
+                             @NonNull List<Person> chunk, @NonNull List<Long> chunkIndexes) {
+        if (chunk.isEmpty())
+            return;
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                personRepository.saveAll(chunk);
+                personRepository.flush();
+            });
+            result.setCreated(result.getCreated() + chunk.size());
+            // Non-existence of imported people may have been cached
+            Cache personsCache = cacheManager.getCache(CacheConfig.PERSONS_CACHE);
+            if (personsCache != null)
+                chunk.forEach(person -> personsCache.evict(person.getOib()));
+        } catch (DataIntegrityViolationException e) {
+            log.warn("Person import chunk of {} person(s) failed, inserting one by one", chunk.size());
+            for (int i = 0; i < chunk.size(); i++) {
+                Person person = chunk.get(i);
+                try {
+                    personService.createPerson(new PersonDto(person));
+                    result.setCreated(result.getCreated() + 1);
+                } catch (ResponseStatusException rse) {
+                    reject(result, chunkIndexes.get(i), person.getOib(), rse.getReason());
+                }
+            }
+        }
+        chunk.clear();
+        chunkIndexes.clear();
+    }
+
+    private static void reject(@NonNull PersonImportResultDto result, long index,
+                               @Nullable String oib, String reason) {
+        result.setRejected(result.getRejected() + 1);
+        result.getRejectedPersons().add(new PersonImportResultDto.RejectedPerson(index, oib, reason));
+    }
+}
@@ -1,5 +1,6 @@
 package hr.pavetic.creditcardrequestsrecords.service.impl;
 
+import hr.pavetic.creditcardrequestsrecords.config.CacheConfig;
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
 import hr.pavetic.creditcardrequestsrecords.model.Person;
 import hr.pavetic.creditcardrequestsrecords.model.Status;
@@ -9,6 +10,8 @@ import hr.pavetic.creditcardrequestsrecords.service.PersonService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.lang.NonNull;
@@ -35,6 +38,7 @@ public class PersonServiceImpl implements PersonService {
      * @param personDto dto data by which to create {@link Person}.
      * @return created {@link Person} entity from DB.
      */
+    @CacheEvict(cacheNames = CacheConfig.PERSONS_CACHE, key = "#personDto.oib")
     @Override
     public Person createPerson(@NonNull PersonDto personDto) {
         Person person = personDto.toDomain(Status.INACTIVE);
@@ -61,8 +65,10 @@ public class PersonServiceImpl implements PersonService {
      *
      * @param oib oib by which to search {@link Person}.
      * @return matching {@link Person} mapped into {@link PersonDto}
-     * if exists, otherwise {@code null}.
+     * if exists, otherwise {@code null}. Result is cached, including
+     * {@code null} result.
      */
+    @Cacheable(cacheNames = CacheConfig.PERSONS_CACHE, key = "#oib")
     @Override
     public PersonDto searchPersonByOIB(@NonNull String oib) {
         Person matchingPerson = personRepository.findByOibOrderByIdDesc(oib);
@@ -77,8 +83,10 @@ public class PersonServiceImpl implements PersonService {
      * Deletes {@link Person} from the record and deactivate his documents.
      *
      * @implSpec Uses {@link Transactional} to ensure person is deleted only
-     * if everything run successfully - prevents that person record gets
-     * deleted in DB even when documents could not be disabled.
+     * if everything run successfully - deactivation of documents is written
+     * into request outbox in the same transaction, and applied once committed.
+     * Documents are not read before the commit, so deletion waits only on
+     * the database and on other operations on requests of the person.
      *
      * @param oib person's oib to delete.
      * @return stringed result of the deletion. If any people were deleted,
@@ -86,14 +94,17 @@ public class PersonServiceImpl implements PersonService {
      * people were deleted.
      */
     @Transactional
+    @CacheEvict(cacheNames = CacheConfig.PERSONS_CACHE, key = "#oib")
     @NonNull
     @Override
     public String deletePersonByOIB(@NonNull String oib) {
+        // Locked before the record is, as by request operations
+        creditCardRequestService.lockCreditCardRequests(oib);
         int deleteCount = personRepository.deleteByOib(oib);
         log.info(deleteCount + " person(s) deleted for OIB: {}", oib);
         if (deleteCount > 0) {
-            int deactivateCount = creditCardRequestService.deactivateCreditCardRequest(oib);
-            log.info(deactivateCount + " credit card requests deactivated for OIB: {}", oib);
+            creditCardRequestService.scheduleCreditCardRequestDeactivation(oib);
+            log.info("Credit card requests scheduled for deactivation for OIB: {}", oib);
             return "Person deleted: " + deleteCount;
         }
         return "There are no people with the requested OIB to delete";
@@ -0,0 +1,330 @@
+package hr.pavetic.creditcardrequestsrecords.service.impl;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOperation;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOutboxEntry;
+import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
+import hr.pavetic.creditcardrequestsrecords.repository.RequestOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies pending {@link RequestOutboxEntry request outbox} entries to the
+ * {@link CreditCardRequestRepository} in the background, in batches and in
+ * order of their IDs. Entries are deleted only once applied.
+ * <p>
+ * Relay is woken up once a transaction writing entries is committed, and
+ * also polls the outbox periodically - so entries left by a crash are applied
+ * on startup. If a batch fails, its entries are applied one by one, and each
+ * entry which fails again is retried with exponential backoff. Until then,
+ * later entries of the same person are held back, while entries of other
+ * people go on. Failed entry is retried until it is applied - dropping it
+ * would leave the request repository diverged from person statuses - with
+ * retry delay capped at the maximum.
+ * <p>
+ * Number of pending entries and age of the oldest one are published as
+ * {@code requests.outbox.depth} and {@code requests.outbox.lag} gauges, and
+ * number of entries which failed at least the configured number of attempts
+ * as {@code requests.outbox.stuck} - such entries need attention, as they
+ * hold back later entries of their people.
+ *
+ * @implNote Applying an entry is idempotent, as an entry could be applied
+ * again if it was not deleted: request is created only if the person has
+ * no active request (there is at most one), and deactivating requests
+ * which are already inactive does nothing. This holds only as long as no
+ * later entry of the same person was applied meanwhile - e.g. request created
+ * again after its deactivation would not be deactivated anymore. Entry is
+ * therefore never applied while an applied entry of the same person is
+ * not deleted yet: batch is applied in segments in which each person occurs
+ * at most once, and each segment is deleted before the next one is applied.
+ */
+@Log4j2
+@Component
+public class RequestOutboxRelay {
+
+    private static final int STOP_TIMEOUT_SECONDS = 10;
+
+    private final RequestOutboxRepository requestOutboxRepository;
+    private final CreditCardRequestRepository creditCardRequestRepository;
+    private final int batchSize;
+    private final Duration pollInterval;
+    private final Duration maxRetryDelay;
+    private final int stuckAttempts;
+
+    private final Counter relayedEntries;
+    private final Counter failedEntries;
+    /**
+     * Outbox backlog as of the last relay run, read by the gauges.
+     */
+    private final AtomicLong pendingEntries = new AtomicLong();
+    private final AtomicReference<Instant> oldestPendingCreatedAt = new AtomicReference<>();
+    private final AtomicLong stuckEntries = new AtomicLong();
+
+    /**
+     * Whether relay run is already submitted - repeated wake-ups are coalesced into it.
+     */
+    private final AtomicBoolean wakeUpPending = new AtomicBoolean();
+
+    @Nullable
+    private volatile ScheduledExecutorService relayExecutor;
+
+    public RequestOutboxRelay(RequestOutboxRepository requestOutboxRepository,
+                              CreditCardRequestRepository creditCardRequestRepository,
+                              @Value("${requests-outbox-batch-size:500}") int batchSize,
+                              @Value("${requests-outbox-poll-interval:1s}") Duration pollInterval,
+                              @Value("${requests-outbox-max-retry-delay:5m}") Duration maxRetryDelay,
+                              @Value("${requests-outbox-stuck-attempts:10}") int stuckAttempts,
+                              MeterRegistry meterRegistry) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Outbox batch size must be positive: " + batchSize);
+        if (stuckAttempts < 1)
+            throw new IllegalArgumentException("Outbox stuck attempts must be positive: " + stuckAttempts);
+        this.requestOutboxRepository = requestOutboxRepository;
+        this.creditCardRequestRepository = creditCardRequestRepository;
+        this.batchSize = batchSize;
+        this.pollInterval = pollInterval;
+        this.maxRetryDelay = maxRetryDelay;
+        this.stuckAttempts = stuckAttempts;
+
+        this.relayedEntries = Counter.builder("requests.outbox.relayed")
+                .description("Request outbox entries applied to the request repository")
+                .register(meterRegistry);
+        this.failedEntries = Counter.builder("requests.outbox.failures")
+                .description("Failed attempts to apply a request outbox entry")
+                .register(meterRegistry);
+        Gauge.builder("requests.outbox.depth", pendingEntries, AtomicLong::get)
+                .description("Pending request outbox entries")
+                .register(meterRegistry);
+        Gauge.builder("requests.outbox.stuck", stuckEntries, AtomicLong::get)
+                .description("Request outbox entries which keep failing, holding back later entries of their people")
+                .register(meterRegistry);
+        TimeGauge.builder("requests.outbox.lag", this, TimeUnit.MILLISECONDS, RequestOutboxRelay::lagMillis)
+                .description("Age of the oldest pending request outbox entry")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts relaying, beginning with entries left by the previous run.
+     * Started once the application is ready, so database is initialized.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "request-outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::relaySafely,
+                0, pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+        relayExecutor = executor;
+    }
+
+    /**
+     * Stops relaying, letting the current batch finish. Relay thread is not
+     * interrupted, as it would close the request file it is writing to.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        ScheduledExecutorService executor = relayExecutor;
+        if (executor == null)
+            return;
+        executor.shutdown();
+        if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            log.warn("Credit card request outbox relay did not stop in {}s", STOP_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Relays pending entries as soon as possible, without waiting for the next poll.
+     */
+    public void wakeUp() {
+        ScheduledExecutorService executor = relayExecutor;
+        if (executor == null || !wakeUpPending.compareAndSet(false, true))
+            return;
+        try {
+            executor.execute(this::relaySafely);
+        } catch (RejectedExecutionException e) {
+            // Relay is stopped - entries are relayed on the next startup
+            wakeUpPending.set(false);
+        }
+    }
+
+    /**
+     * Applies all pending entries which are due, batch by batch.
+     *
+     * @return number of applied entries.
+     */
+    public int relay() {
+        int relayed = 0;
+        List<RequestOutboxEntry> entries;
+        do {
+            entries = requestOutboxRepository.findPending(Instant.now(), PageRequest.of(0, batchSize));
+            if (entries.isEmpty())
+                break;
+            int applied = applyInSegments(entries);
+            relayedEntries.increment(applied);
+            relayed += applied;
+            // Nothing could be applied - rest is left for the next run
+            if (applied == 0)
+                break;
+        } while (entries.size() == batchSize);
+        return relayed;
+    }
+
+    private void relaySafely() {
+        wakeUpPending.set(false);
+        try {
+            int relayed = relay();
+            if (relayed > 0)
+                log.debug("Relayed {} credit card request outbox entries", relayed);
+        } catch (RuntimeException e) {
+            // Outbox itself could not be read or updated - entries are applied on the next run
+            log.error("Credit card request outbox relay failed", e);
+        }
+        try {
+            pendingEntries.set(requestOutboxRepository.count());
+            oldestPendingCreatedAt.set(requestOutboxRepository.findOldestCreatedAt());
+            stuckEntries.set(requestOutboxRepository.countByAttemptsGreaterThanEqual(stuckAttempts));
+        } catch (RuntimeException e) {
+            log.error("Credit card request outbox backlog could not be measured", e);
+        }
+    }
+
+    /**
+     * Applies entries in segments in which each person occurs at most once,
+     * deleting each segment once it is applied. If a segment fails, it and
+     * the rest of entries are applied one by one.
+     *
+     * @return number of applied (and deleted) entries.
+     */
+    private int applyInSegments(@NonNull List<RequestOutboxEntry> entries) {
+        int applied = 0;
+        while (applied < entries.size()) {
+            List<RequestOutboxEntry> segment = nextSegment(entries, applied);
+            try {
+                apply(segment);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Credit card request outbox batch failed, applying its remaining entries one by one", e);
+                return applied + applyEach(entries.subList(applied, entries.size()));
+            }
+            requestOutboxRepository.deleteAllByIdInBatch(segment.stream().map(RequestOutboxEntry::getId).toList());
+            applied += segment.size();
+        }
+        return applied;
+    }
+
+    /**
+     * @return entries from given index up to the next entry of a person already among them.
+     */
+    @NonNull
+    private static List<RequestOutboxEntry> nextSegment(@NonNull List<RequestOutboxEntry> entries, int from) {
+        Set<String> oibs = new HashSet<>();
+        int to = from;
+        while (to < entries.size() && oibs.add(entries.get(to).getOib()))
+            to++;
+        return entries.subList(from, to);
+    }
+
+    /**
+     * Applies entries one at a time, deleting each once applied. Failed entry is
+     * scheduled for retry, and later entries of the same person are left in the
+     * outbox behind it.
+     *
+     * @return number of applied entries.
+     */
+    private int applyEach(@NonNull List<RequestOutboxEntry> entries) {
+        int applied = 0;
+        Set<String> heldBackOibs = new HashSet<>();
+        for (RequestOutboxEntry entry : entries) {
+            if (heldBackOibs.contains(entry.getOib()))
+                continue;
+            try {
+                apply(List.of(entry));
+            } catch (IOException | RuntimeException e) {
+                heldBackOibs.add(entry.getOib());
+                scheduleRetry(entry, e);
+                continue;
+            }
+            requestOutboxRepository.deleteAllByIdInBatch(List.of(entry.getId()));
+            applied++;
+        }
+        return applied;
+    }
+
+    private void scheduleRetry(@NonNull RequestOutboxEntry entry, @NonNull Exception cause) {
+        failedEntries.increment();
+        entry.setAttempts(entry.getAttempts() + 1);
+        Duration retryDelay = pollInterval.multipliedBy(1L << Math.min(entry.getAttempts() - 1, 20));
+        if (retryDelay.compareTo(maxRetryDelay) > 0)
+            retryDelay = maxRetryDelay;
+        entry.setNextAttemptAt(Instant.now().plus(retryDelay));
+        requestOutboxRepository.save(entry);
+        log.error("Credit card request outbox entry {} failed (attempt {}), retrying in {}",
+                entry, entry.getAttempts(), retryDelay, cause);
+    }
+
+    private double lagMillis() {
+        Instant oldest = oldestPendingCreatedAt.get();
+        return oldest == null ? 0 : Math.max(Duration.between(oldest, Instant.now()).toMillis(), 0);
+    }
+
+    /**
+     * Applies entries of different people. Requests to create are written together.
+     */
+    private void apply(@NonNull List<RequestOutboxEntry> entries) throws IOException {
+        Map<String, PersonDto> newRequests = new LinkedHashMap<>();
+        for (RequestOutboxEntry entry : entries) {
+            if (entry.getOperation() == RequestOperation.CREATE) {
+                newRequests.put(entry.getOib(), entry.toPersonDto());
+            } else {
+                for (Path requestPath : creditCardRequestRepository.deactivateActiveRequests(entry.getOib()))
+                    log.info("Credit card record deactivated: {}", requestPath);
+            }
+        }
+        createRequests(newRequests);
+    }
+
+    private void createRequests(@NonNull Map<String, PersonDto> newRequests) throws IOException {
+        if (newRequests.isEmpty())
+            return;
+        // Already created if the batch is applied again
+        Set<String> oibsWithActiveRequest = creditCardRequestRepository.findOibsWithActiveRequest(newRequests.keySet());
+        List<PersonDto> personDtos = new ArrayList<>(newRequests.size());
+        newRequests.forEach((oib, personDto) -> {
+            if (!oibsWithActiveRequest.contains(oib))
+                personDtos.add(personDto);
+        });
+        if (personDtos.isEmpty())
+            return;
+        for (Path requestPath : creditCardRequestRepository.writePersonDtoRequests(personDtos))
+            log.info("New credit card request created: {}", requestPath);
+    }
+}
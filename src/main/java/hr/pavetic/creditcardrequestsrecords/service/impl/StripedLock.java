@@ -0,0 +1,67 @@
+package hr.pavetic.creditcardrequestsrecords.service.impl;
+
+import org.springframework.lang.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks, where each key is guarded by the lock of its stripe.
+ * Operations on the same key are mutually exclusive, while operations on
+ * different keys contend only if their keys hash into the same stripe.
+ * <p>
+ * Locks are reentrant, so a guarded operation can call another operation
+ * guarded by the same key.
+ */
+public final class StripedLock {
+
+    private final Lock[] stripes;
+
+    /**
+     * @param stripes number of stripes, rounded up to the power of two.
+     */
+    public StripedLock(int stripes) {
+        if (stripes < 1)
+            throw new IllegalArgumentException("Number of stripes must be positive: " + stripes);
+        this.stripes = new Lock[Integer.highestOneBit((stripes - 1) << 1 | 1)];
+        for (int i = 0; i < this.stripes.length; i++)
+            this.stripes[i] = new ReentrantLock();
+    }
+
+    /**
+     * Returns lock guarding given key.
+     *
+     * @param key key to guard, e.g. packed OIB of a person.
+     * @return lock of the key's stripe.
+     */
+    @NonNull
+    public Lock forKey(long key) {
+        return stripes[stripeOf(Long.hashCode(key))];
+    }
+
+    /**
+     * Returns locks guarding all given keys, each lock once. Locks are
+     * always returned in the same order, so threads acquiring them in
+     * returned order cannot deadlock each other.
+     *
+     * @param keys keys to guard, e.g. packed OIBs.
+     * @return locks of the keys' stripes.
+     */
+    @NonNull
+    public List<Lock> forKeys(@NonNull long[] keys) {
+        return Arrays.stream(keys)
+                .mapToInt(key -> stripeOf(Long.hashCode(key)))
+                .distinct()
+                .sorted()
+                .mapToObj(stripe -> stripes[stripe])
+                .toList();
+    }
+
+    private int stripeOf(int hash) {
+        // Only lower bits select the stripe - spread higher bits into them
+        hash ^= hash >>> 16;
+        return hash & stripes.length - 1;
+    }
+}
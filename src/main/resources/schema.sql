@@ -1,8 +1,21 @@
-DROP TABLE Person;
 CREATE TABLE IF NOT EXISTS Person (
     oib VARCHAR(11) NOT NULL,
     name VARCHAR(255) NOT NULL,
     lastName VARCHAR(255) NOT NULL,
     status VARCHAR(10) NOT NULL,
     CONSTRAINT pk_person PRIMARY KEY (oib)
-);
\ No newline at end of file
+);
+
+CREATE TABLE IF NOT EXISTS RequestOutbox (
+    id BIGINT NOT NULL,
+    oib VARCHAR(11) NOT NULL,
+    name VARCHAR(255),
+    lastName VARCHAR(255),
+    operation VARCHAR(10) NOT NULL,
+    createdAt TIMESTAMP WITH TIME ZONE NOT NULL,
+    attempts INT DEFAULT 0 NOT NULL,
+    nextAttemptAt TIMESTAMP WITH TIME ZONE,
+    CONSTRAINT pk_request_outbox PRIMARY KEY (id)
+);
+CREATE INDEX IF NOT EXISTS idx_request_outbox_oib ON RequestOutbox (oib);
+CREATE SEQUENCE IF NOT EXISTS RequestOutbox_seq START WITH 1 INCREMENT BY 50;
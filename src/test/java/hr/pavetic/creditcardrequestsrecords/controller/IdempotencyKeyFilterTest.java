@@ -0,0 +1,142 @@
+package hr.pavetic.creditcardrequestsrecords.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class IdempotencyKeyFilterTest {
+
+    private final IdempotencyKeyFilter idempotencyKeyFilter =
+            new IdempotencyKeyFilter(DataSize.ofMegabytes(1), Duration.ofHours(1), new SimpleMeterRegistry());
+    private final AtomicInteger handledRequests = new AtomicInteger();
+
+    private static MockHttpServletRequest post(String path, String idempotencyKey) {
+        return post(path, idempotencyKey, "{\"oib\":\"12345678901\"}");
+    }
+
+    private static MockHttpServletRequest post(String path, String idempotencyKey, String body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", path);
+        if (idempotencyKey != null)
+            request.addHeader(IdempotencyKeyFilter.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        request.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, int status) throws ServletException, IOException {
+        return filter(request, (servletRequest, servletResponse) -> {
+            handledRequests.incrementAndGet();
+            HttpServletResponse response = (HttpServletResponse) servletResponse;
+            response.setStatus(status);
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getWriter().write("{\"handled\":" + handledRequests.get() + "}");
+        });
+    }
+
+    private MockHttpServletResponse filter(MockHttpServletRequest request, FilterChain filterChain)
+            throws ServletException, IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        idempotencyKeyFilter.doFilter(request, response, filterChain);
+        return response;
+    }
+
+    @Test
+    void retryIsReplayedTest() throws ServletException, IOException {
+        MockHttpServletResponse response = filter(post("/api/v1/person", "key-1"), 201);
+        MockHttpServletResponse replayedResponse = filter(post("/api/v1/person", "key-1"), 201);
+
+        Assertions.assertEquals(1, handledRequests.get());
+        Assertions.assertEquals(201, replayedResponse.getStatus());
+        Assertions.assertEquals(MediaType.APPLICATION_JSON_VALUE, replayedResponse.getContentType());
+        Assertions.assertEquals(response.getContentAsString(), replayedResponse.getContentAsString());
+        Assertions.assertNull(response.getHeader(IdempotencyKeyFilter.REPLAYED_HEADER));
+        Assertions.assertEquals("true", replayedResponse.getHeader(IdempotencyKeyFilter.REPLAYED_HEADER));
+
+        // Key is scoped by path, and requests without it are always handled
+        filter(post("/api/v1/credit-card-request", "key-1"), 201);
+        filter(post("/api/v1/person", null), 201);
+        filter(post("/api/v1/person", null), 201);
+        Assertions.assertEquals(4, handledRequests.get());
+    }
+
+    @Test
+    void clientErrorIsReplayedAndServerErrorIsNotTest() throws ServletException, IOException {
+        filter(post("/api/v1/person", "key-1"), 400);
+        Assertions.assertEquals(400, filter(post("/api/v1/person", "key-1"), 201).getStatus());
+        Assertions.assertEquals(1, handledRequests.get());
+
+        filter(post("/api/v1/person", "key-2"), 503);
+        Assertions.assertEquals(201, filter(post("/api/v1/person", "key-2"), 201).getStatus());
+        Assertions.assertEquals(3, handledRequests.get());
+
+        // Request which failed with an exception is handled again as well
+        Assertions.assertThrows(IllegalStateException.class, () -> filter(post("/api/v1/person", "key-3"),
+                (servletRequest, servletResponse) -> {
+                    throw new IllegalStateException("some error");
+                }));
+        Assertions.assertEquals(201, filter(post("/api/v1/person", "key-3"), 201).getStatus());
+        Assertions.assertEquals(4, handledRequests.get());
+    }
+
+    @Test
+    void retryOfRequestInProgressIsRejectedTest() throws ServletException, IOException {
+        MockHttpServletResponse response = filter(post("/api/v1/person", "key-1"), (servletRequest, servletResponse) -> {
+            MockHttpServletResponse retryResponse = filter(post("/api/v1/person", "key-1"), 201);
+            Assertions.assertEquals(409, retryResponse.getStatus());
+            ((HttpServletResponse) servletResponse).setStatus(201);
+        });
+        Assertions.assertEquals(201, response.getStatus());
+        Assertions.assertEquals(0, handledRequests.get());
+    }
+
+    @Test
+    void keyReusedForDifferentBodyIsRejectedTest() throws ServletException, IOException {
+        MockHttpServletResponse response = filter(post("/api/v1/person", "key-1", "{\"oib\":\"12345678901\"}"),
+                (servletRequest, servletResponse) -> {
+                    handledRequests.incrementAndGet();
+                    // Handler still reads the whole body
+                    Assertions.assertEquals("{\"oib\":\"12345678901\"}",
+                            new String(servletRequest.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+                    ((HttpServletResponse) servletResponse).setStatus(201);
+                });
+        Assertions.assertEquals(201, response.getStatus());
+
+        Assertions.assertEquals(422,
+                filter(post("/api/v1/person", "key-1", "{\"oib\":\"12345678902\"}"), 201).getStatus());
+        Assertions.assertEquals(201,
+                filter(post("/api/v1/person", "key-1", "{\"oib\":\"12345678901\"}"), 201).getStatus());
+        Assertions.assertEquals(1, handledRequests.get());
+    }
+
+    @Test
+    void keyIsScopedByUserTest() throws ServletException, IOException {
+        MockHttpServletRequest request = post("/api/v1/person", "key-1");
+        request.setRemoteUser("first");
+        filter(request, 201);
+        MockHttpServletRequest otherUserRequest = post("/api/v1/person", "key-1");
+        otherUserRequest.setRemoteUser("second");
+        MockHttpServletResponse otherUserResponse = filter(otherUserRequest, 201);
+
+        Assertions.assertNull(otherUserResponse.getHeader(IdempotencyKeyFilter.REPLAYED_HEADER));
+        Assertions.assertEquals(2, handledRequests.get());
+    }
+
+    @Test
+    void invalidKeyIsRejectedTest() throws ServletException, IOException {
+        Assertions.assertEquals(400, filter(post("/api/v1/person", " "), 201).getStatus());
+        Assertions.assertEquals(400, filter(post("/api/v1/person", "k".repeat(256)), 201).getStatus());
+        Assertions.assertEquals(0, handledRequests.get());
+    }
+}
@@ -0,0 +1,70 @@
+package hr.pavetic.creditcardrequestsrecords.migration;
+
+import hr.pavetic.creditcardrequestsrecords.repository.impl.RequestFolderLayout;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+class RequestFolderMigrationTest {
+
+    private static final String REQUESTS_FOLDER = "test_migration_requests_folder";
+
+    @BeforeEach
+    @AfterEach
+    void cleanupResources() throws IOException {
+        FileUtils.deleteDirectory(Paths.get(REQUESTS_FOLDER).toFile());
+    }
+
+    @Test
+    void migrateFlatFolderToShardedTest() throws IOException {
+        Path folder = Files.createDirectories(Paths.get(REQUESTS_FOLDER));
+        Files.writeString(folder.resolve("12345678901_1.txt"), "Dorian Pavetic 12345678901 ACTIVE");
+        Files.writeString(folder.resolve("12345678901_2.txt"), "Dorian Pavetic 12345678901 INACTIVE");
+        Files.writeString(folder.resolve("98765432109_1.txt"), "Ivan Horvat 98765432109 ACTIVE");
+        Files.writeString(folder.resolve("notes.md"), "not a request");
+
+        RequestFolderMigration migration = new RequestFolderMigration(
+                new RequestFolderLayout(folder, 2));
+        RequestFolderMigration.Result result = migration.migrate();
+        Assertions.assertEquals(new RequestFolderMigration.Result(3, 0, 0), result);
+
+        Assertions.assertEquals("Dorian Pavetic 12345678901 ACTIVE",
+                Files.readString(folder.resolve("12/34/12345678901_1.txt")));
+        Assertions.assertEquals("Dorian Pavetic 12345678901 INACTIVE",
+                Files.readString(folder.resolve("12/34/12345678901_2.txt")));
+        Assertions.assertEquals("Ivan Horvat 98765432109 ACTIVE",
+                Files.readString(folder.resolve("98/76/98765432109_1.txt")));
+        Assertions.assertFalse(Files.exists(folder.resolve("12345678901_1.txt")));
+        Assertions.assertTrue(Files.exists(folder.resolve("notes.md")));
+
+        // Restarted migration has nothing left to move
+        Assertions.assertEquals(new RequestFolderMigration.Result(0, 3, 0), migration.migrate());
+    }
+
+    @Test
+    void migrateKeepsConflictingFileTest() throws IOException {
+        Path folder = Files.createDirectories(Paths.get(REQUESTS_FOLDER));
+        Files.createDirectories(folder.resolve("12/34"));
+        Files.writeString(folder.resolve("12/34/12345678901_1.txt"), "Dorian Pavetic 12345678901 INACTIVE");
+        Files.writeString(folder.resolve("12345678901_1.txt"), "Dorian Pavetic 12345678901 ACTIVE");
+        Files.writeString(folder.resolve("12345678901_2.txt"), "Dorian Pavetic 12345678901 ACTIVE");
+        Files.writeString(folder.resolve("12/34/12345678901_2.txt"), "Dorian Pavetic 12345678901 ACTIVE");
+
+        RequestFolderMigration.Result result = new RequestFolderMigration(
+                new RequestFolderLayout(folder, 2)).migrate();
+        Assertions.assertEquals(1, result.moved());
+        Assertions.assertEquals(1, result.conflicts());
+
+        // Conflicting file is kept in both places, identical one is deduplicated
+        Assertions.assertTrue(Files.exists(folder.resolve("12345678901_1.txt")));
+        Assertions.assertTrue(Files.exists(folder.resolve("12/34/12345678901_1.txt")));
+        Assertions.assertFalse(Files.exists(folder.resolve("12345678901_2.txt")));
+    }
+}
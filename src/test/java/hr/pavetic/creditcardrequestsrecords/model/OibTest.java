@@ -0,0 +1,28 @@
+package hr.pavetic.creditcardrequestsrecords.model;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class OibTest {
+
+    @Test
+    void packAndUnpackTest() {
+        Oib oib = Oib.of("00012345678");
+        Assertions.assertEquals(12_345_678L, oib.value());
+        Assertions.assertEquals("00012345678", oib.toString());
+        Assertions.assertEquals(Oib.of("99999999999"), Oib.parse("99999999999"));
+        Assertions.assertEquals(Oib.of("12345678901").hashCode(), Oib.of("12345678901").hashCode());
+        Assertions.assertNotEquals(Oib.of("12345678901"), Oib.of("12345678902"));
+    }
+
+    @Test
+    void malformedOibTest() {
+        for (String malformed : new String[]{null, "", "123", "123456789012", "1234567890a", "-1234567890", "１２３４５６７８９０１"}) {
+            Assertions.assertEquals(Oib.INVALID, Oib.pack(malformed));
+            Assertions.assertNull(Oib.parse(malformed));
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Oib.of("123"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Oib(Oib.INVALID));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new Oib(100_000_000_000L));
+    }
+}
@@ -3,31 +3,56 @@ package hr.pavetic.creditcardrequestsrecords.repository;
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
 import hr.pavetic.creditcardrequestsrecords.model.Status;
 import hr.pavetic.creditcardrequestsrecords.repository.impl.CreditCardRequestRepositoryImpl;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.RequestEntryCodec;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.apache.tomcat.util.http.fileupload.FileUtils;
 import org.awaitility.Awaitility;
 import org.awaitility.Duration;
 import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
 import org.springframework.data.util.Pair;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
 class CreditCardRequestRepositoryTest {
 
     private static final String REQUESTS_FOLDER = "test_requests_folder";
+    private static final java.time.Duration NO_SNAPSHOTS = java.time.Duration.ZERO;
+    private static final java.time.Duration SNAPSHOT_INTERVAL = java.time.Duration.ofHours(1);
+    private static final java.time.Duration GROUP_COMMIT_WINDOW = java.time.Duration.ofMillis(1);
 
-    private final CreditCardRequestRepository repository =
-            new CreditCardRequestRepositoryImpl(REQUESTS_FOLDER);
+    /**
+     * Repositories created by the test, closed after it.
+     */
+    private final List<CreditCardRequestRepositoryImpl> repositories = new ArrayList<>();
+
+    private final CreditCardRequestRepository repository = repository(REQUESTS_FOLDER, 0, true);
 
     @BeforeAll
     @AfterAll
@@ -35,6 +60,25 @@ class CreditCardRequestRepositoryTest {
         FileUtils.deleteDirectory(Paths.get(REQUESTS_FOLDER).toFile());
     }
 
+    @AfterEach
+    void closeRepositories() throws IOException {
+        for (CreditCardRequestRepositoryImpl createdRepository : repositories)
+            createdRepository.close();
+    }
+
+    private CreditCardRequestRepositoryImpl repository(String folder, int shardDepth, boolean indexEnabled) {
+        return repository(folder, shardDepth, indexEnabled, NO_SNAPSHOTS, true, new SimpleMeterRegistry());
+    }
+
+    private CreditCardRequestRepositoryImpl repository(String folder, int shardDepth, boolean indexEnabled,
+                                                       java.time.Duration snapshotInterval, boolean oibFilterEnabled,
+                                                       MeterRegistry meterRegistry) {
+        CreditCardRequestRepositoryImpl createdRepository = new CreditCardRequestRepositoryImpl(folder, shardDepth,
+                indexEnabled, snapshotInterval, 4, GROUP_COMMIT_WINDOW, 256, oibFilterEnabled, 1000, 0.01, meterRegistry);
+        repositories.add(createdRepository);
+        return createdRepository;
+    }
+
     @Test
     void writeTwoInactivePersonRecordsTest() throws IOException {
         PersonDto personDto = PersonDto.builder()
@@ -116,6 +160,441 @@ class CreditCardRequestRepositoryTest {
         Assertions.assertEquals(0, requestFilesForPerson.length);
     }
 
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void writeShardedPersonRecordTest(boolean indexEnabled) throws IOException {
+        PersonDto personDto = PersonDto.builder()
+                .oib("98765432109")
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+        CreditCardRequestRepository shardedRepository = repository(REQUESTS_FOLDER, 2, indexEnabled);
+        Assertions.assertFalse(shardedRepository.isActiveRequestExist(personDto.getOib()));
+
+        Path path = shardedRepository.writePersonDtoRequest(personDto);
+        Assertions.assertEquals(Paths.get(REQUESTS_FOLDER, "98", "76"), path.getParent());
+        Assertions.assertTrue(Files.exists(path));
+
+        File[] requestFilesForPerson = shardedRepository.findRequestFilesForPerson(personDto.getOib());
+        Assertions.assertEquals(1, requestFilesForPerson.length);
+        Assertions.assertEquals(path, requestFilesForPerson[0].toPath());
+        Assertions.assertTrue(shardedRepository.isActiveRequestExist(personDto.getOib()));
+
+        Files.delete(path);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void writeRequestsInBulkTest(boolean indexEnabled) throws IOException {
+        List<PersonDto> personDtos = List.of(
+                PersonDto.builder().oib("55123456789").name("Ana").lastName("Horvat").status(Status.ACTIVE).build(),
+                PersonDto.builder().oib("55987654321").name("Ivan").lastName("Kovac").status(Status.ACTIVE).build(),
+                PersonDto.builder().oib("66123456789").name("Marko").lastName("Babic").status(Status.INACTIVE).build());
+        CreditCardRequestRepository shardedRepository = repository(REQUESTS_FOLDER, 1, indexEnabled);
+
+        List<Path> paths = shardedRepository.writePersonDtoRequests(personDtos);
+        Assertions.assertEquals(Paths.get(REQUESTS_FOLDER, "55"), paths.get(0).getParent());
+        Assertions.assertEquals(Paths.get(REQUESTS_FOLDER, "55"), paths.get(1).getParent());
+        Assertions.assertEquals(Paths.get(REQUESTS_FOLDER, "66"), paths.get(2).getParent());
+        Assertions.assertEquals(Pair.of(paths.get(1), personDtos.get(1)),
+                shardedRepository.findActiveRequestsForPerson("55987654321").get(0));
+        Assertions.assertEquals(Set.of("55123456789", "55987654321"), shardedRepository.findOibsWithActiveRequest(
+                List.of("55123456789", "55987654321", "66123456789", "77123456789")));
+
+        for (Path path : paths)
+            Files.delete(path);
+    }
+
+    @Test
+    void writeIsAcknowledgedOnlyOnceSyncedTest() throws Exception {
+        CountDownLatch syncStarted = new CountDownLatch(1);
+        CountDownLatch syncReleased = new CountDownLatch(1);
+        CreditCardRequestRepositoryImpl syncedRepository = new CreditCardRequestRepositoryImpl(REQUESTS_FOLDER, 1,
+                true, NO_SNAPSHOTS, 4, GROUP_COMMIT_WINDOW, 256, true, 1000, 0.01, new SimpleMeterRegistry()) {
+            @Override
+            protected void sync(List<FileChannel> files, Set<Path> folders) throws IOException {
+                syncStarted.countDown();
+                try {
+                    syncReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                super.sync(files, folders);
+            }
+        };
+        repositories.add(syncedRepository);
+        PersonDto personDto = PersonDto.builder()
+                .oib("44123456789")
+                .name("Ana")
+                .lastName("Horvat")
+                .status(Status.ACTIVE)
+                .build();
+
+        CompletableFuture<Path> written = CompletableFuture.supplyAsync(() -> {
+            try {
+                return syncedRepository.writePersonDtoRequest(personDto);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try {
+            Assertions.assertTrue(syncStarted.await(5, TimeUnit.SECONDS));
+            Awaitility.await().pollDelay(Duration.ONE_HUNDRED_MILLISECONDS).until(() -> true);
+            Assertions.assertFalse(written.isDone());
+        } finally {
+            syncReleased.countDown();
+        }
+
+        Path path = written.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(Paths.get(REQUESTS_FOLDER, "44"), path.getParent());
+        Assertions.assertTrue(syncedRepository.isActiveRequestExist(personDto.getOib()));
+
+        Files.delete(path);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void readManyRequestsInParallelTest(boolean indexEnabled) throws IOException {
+        String oib = "77712345678";
+        CreditCardRequestRepositoryImpl parallelRepository = repository(REQUESTS_FOLDER, 0, indexEnabled);
+        try {
+            List<Path> activePaths = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                PersonDto personDto = PersonDto.builder()
+                        .oib(oib)
+                        .name("Dorian")
+                        .lastName("Pavetic")
+                        .status(i % 10 == 9 ? Status.ACTIVE : Status.INACTIVE)
+                        .build();
+                Path path = parallelRepository.writePersonDtoRequest(
+                        Paths.get(REQUESTS_FOLDER, oib + "_" + i + ".txt"), personDto);
+                if (personDto.getStatus() == Status.ACTIVE)
+                    activePaths.add(path);
+            }
+            Assertions.assertTrue(parallelRepository.isActiveRequestExist(oib));
+            Assertions.assertEquals(Set.copyOf(activePaths),
+                    parallelRepository.findActiveRequestsForPerson(oib).stream()
+                            .map(Pair::getFirst)
+                            .collect(Collectors.toSet()));
+
+            // Failure of any reader thread is reported to the caller
+            if (!indexEnabled) {
+                Files.write(Paths.get(REQUESTS_FOLDER, oib + "_50.txt"), "a b c d e".getBytes());
+                ResponseStatusException ex = Assertions.assertThrows(ResponseStatusException.class,
+                        () -> parallelRepository.findActiveRequestsForPerson(oib));
+                Assertions.assertEquals("Request could not be read properly - malformed entry", ex.getReason());
+            }
+        } finally {
+            for (File file : parallelRepository.findRequestFilesForPerson(oib))
+                Files.delete(file.toPath());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void countAndFindLatestRequestTest(boolean indexEnabled) throws IOException {
+        String oib = "88812345678";
+        CreditCardRequestRepository queriedRepository = repository(REQUESTS_FOLDER, 0, indexEnabled);
+        Assertions.assertEquals(0, queriedRepository.countActiveRequests(oib));
+        Assertions.assertNull(queriedRepository.findLatestRequest(oib));
+
+        PersonDto personDto = PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+        // Legacy request without creation time is the oldest one
+        Path legacyPath = queriedRepository.writePersonDtoRequest(
+                Paths.get(REQUESTS_FOLDER, oib + ".txt"), personDto);
+        Path latestPath = queriedRepository.writePersonDtoRequest(
+                Paths.get(REQUESTS_FOLDER, oib + "_200.txt"), personDto);
+        personDto.setStatus(Status.INACTIVE);
+        Path olderPath = queriedRepository.writePersonDtoRequest(
+                Paths.get(REQUESTS_FOLDER, oib + "_100.txt"), personDto);
+
+        Assertions.assertEquals(2, queriedRepository.countActiveRequests(oib));
+        Assertions.assertEquals(Pair.of(latestPath, Status.ACTIVE), queriedRepository.findLatestRequest(oib));
+
+        for (Path path : List.of(legacyPath, latestPath, olderPath))
+            Files.delete(path);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void deactivateActiveRequestsTest(boolean indexEnabled) throws IOException {
+        String oib = "77712345678";
+        CreditCardRequestRepository deactivatingRepository = repository(REQUESTS_FOLDER, 0, indexEnabled);
+        PersonDto personDto = PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+        Path binaryPath = deactivatingRepository.writePersonDtoRequest(
+                Paths.get(REQUESTS_FOLDER, oib + "_1.txt"), personDto);
+        // Written through the repository, so it is indexed, then replaced by a legacy entry
+        Path legacyPath = deactivatingRepository.writePersonDtoRequest(
+                Paths.get(REQUESTS_FOLDER, oib + "_2.txt"), personDto);
+        Files.write(legacyPath, ("Dorian Pavetic " + oib + " ACTIVE").getBytes());
+        personDto.setStatus(Status.INACTIVE);
+        Path inactivePath = deactivatingRepository.writePersonDtoRequest(
+                Paths.get(REQUESTS_FOLDER, oib + "_3.txt"), personDto);
+        byte[] binaryEntry = Files.readAllBytes(binaryPath);
+
+        Assertions.assertEquals(Set.of(binaryPath, legacyPath),
+                Set.copyOf(deactivatingRepository.deactivateActiveRequests(oib)));
+        Assertions.assertEquals(0, deactivatingRepository.countActiveRequests(oib));
+        Assertions.assertTrue(deactivatingRepository.findActiveRequestsForPerson(oib).isEmpty());
+        // Binary entry differs only in the status byte
+        byte[] deactivatedEntry = Files.readAllBytes(binaryPath);
+        Assertions.assertEquals(binaryEntry.length, deactivatedEntry.length);
+        for (int i = 0; i < binaryEntry.length; i++) {
+            if (i != RequestEntryCodec.STATUS_OFFSET)
+                Assertions.assertEquals(binaryEntry[i], deactivatedEntry[i]);
+        }
+        Assertions.assertEquals(personDto, RequestEntryCodec.decode(ByteBuffer.wrap(deactivatedEntry)));
+        Assertions.assertEquals(personDto,
+                RequestEntryCodec.decode(ByteBuffer.wrap(Files.readAllBytes(legacyPath))));
+        Assertions.assertTrue(deactivatingRepository.deactivateActiveRequests(oib).isEmpty());
+
+        for (Path path : List.of(binaryPath, legacyPath, inactivePath))
+            Files.delete(path);
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void forEachActiveRequestTest(boolean indexEnabled) throws IOException {
+        CreditCardRequestRepository exportingRepository = repository(REQUESTS_FOLDER, 0, indexEnabled);
+        PersonDto activePersonDto = PersonDto.builder()
+                .oib("88812345678")
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+        PersonDto inactivePersonDto = PersonDto.builder()
+                .oib("88812345679")
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.INACTIVE)
+                .build();
+        Path activePath = exportingRepository.writePersonDtoRequest(activePersonDto);
+        Path inactivePath = exportingRepository.writePersonDtoRequest(inactivePersonDto);
+
+        // Folder is shared with other tests, so only requests written here are checked
+        List<Pair<Path, PersonDto>> visited = new ArrayList<>();
+        exportingRepository.forEachActiveRequest((requestPath, personDto) -> {
+            Assertions.assertEquals(Status.ACTIVE, personDto.getStatus());
+            visited.add(Pair.of(requestPath, personDto));
+        });
+        Assertions.assertTrue(visited.contains(Pair.of(activePath, activePersonDto)));
+        Assertions.assertTrue(visited.stream().noneMatch(request -> request.getFirst().equals(inactivePath)));
+
+        // Exception of the visitor stops the pass
+        Assertions.assertThrows(IOException.class, () -> exportingRepository.forEachActiveRequest(
+                (requestPath, personDto) -> {
+                    throw new IOException("Client went away");
+                }));
+
+        Files.delete(activePath);
+        Files.delete(inactivePath);
+    }
+
+    @Test
+    void oibFilterTest() throws IOException {
+        String folder = REQUESTS_FOLDER + "/filter";
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CreditCardRequestRepositoryImpl filteredRepository = repository(folder, 0, false, NO_SNAPSHOTS, true, meterRegistry);
+        filteredRepository.start();
+        PersonDto personDto = PersonDto.builder()
+                .oib("55512345678")
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+
+        // Person without requests is answered by the filter alone
+        Assertions.assertFalse(filteredRepository.isActiveRequestExist(personDto.getOib()));
+        Assertions.assertTrue(filteredRepository.findOibsWithActiveRequest(List.of(personDto.getOib())).isEmpty());
+        Assertions.assertEquals(2, meterRegistry.get("requests.oib.filter").tag("result", "negative").counter().count());
+        Assertions.assertEquals(0, meterRegistry.get("requests.files.scanned").counter().count());
+
+        filteredRepository.writePersonDtoRequest(personDto);
+        Assertions.assertTrue(filteredRepository.isActiveRequestExist(personDto.getOib()));
+        Assertions.assertEquals(1, meterRegistry.get("requests.oib.filter").tag("result", "true_positive").counter().count());
+        filteredRepository.close();
+        Assertions.assertTrue(Files.exists(Paths.get(folder, "oibs.bloom")));
+
+        // Saved filter is loaded on startup and removed, so a crash does not leave it outdated
+        CreditCardRequestRepositoryImpl reopenedRepository = repository(folder, 0, false);
+        reopenedRepository.start();
+        Assertions.assertFalse(Files.exists(Paths.get(folder, "oibs.bloom")));
+        Assertions.assertTrue(reopenedRepository.isActiveRequestExist(personDto.getOib()));
+        reopenedRepository.close();
+
+        // Request written by another process while stopped makes saved filter outdated
+        Awaitility.await().pollDelay(Duration.ONE_HUNDRED_MILLISECONDS).until(() -> true);
+        personDto.setOib("55512345679");
+        Files.write(Paths.get(folder, personDto.getOib() + "_1.txt"), RequestEntryCodec.encode(personDto).array());
+        CreditCardRequestRepositoryImpl rebuiltRepository = repository(folder, 0, false);
+        rebuiltRepository.start();
+        Assertions.assertTrue(rebuiltRepository.isActiveRequestExist(personDto.getOib()));
+        Assertions.assertTrue(rebuiltRepository.isActiveRequestExist("55512345678"));
+    }
+
+    @Test
+    void indexSnapshotTest() throws IOException {
+        String folder = REQUESTS_FOLDER + "/snapshot";
+        PersonDto personDto = PersonDto.builder()
+                .oib("55512345678")
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+        // Written before the index is started, so that it is not changed in the index
+        Path activePath = Paths.get(folder, "55", personDto.getOib() + "_1.txt");
+        Files.createDirectories(activePath.getParent());
+        Files.write(activePath, RequestEntryCodec.encode(personDto).array());
+        CreditCardRequestRepositoryImpl snapshotRepository =
+                repository(folder, 1, true, SNAPSHOT_INTERVAL, true, new SimpleMeterRegistry());
+        snapshotRepository.start();
+        personDto.setOib("66612345678");
+        snapshotRepository.writePersonDtoRequest(personDto);
+        snapshotRepository.deactivateActiveRequests(personDto.getOib());
+        snapshotRepository.close();
+        Assertions.assertTrue(Files.exists(Paths.get(folder, ".index", "requests.snapshot")));
+
+        // Folder not modified since the snapshot is taken from it, without reading its files
+        Files.write(activePath, "Dorian Pavetic 55512345678 INACTIVE".getBytes());
+        FileTime beforeSnapshot = FileTime.from(Instant.now().minusSeconds(3600));
+        Files.setLastModifiedTime(activePath, beforeSnapshot);
+        Files.setLastModifiedTime(activePath.getParent(), beforeSnapshot);
+        // Folder changed in the index or modified since the snapshot is listed again, and its new files are read
+        personDto.setOib("66698765432");
+        Files.write(Paths.get(folder, "66", personDto.getOib() + "_1.txt"), RequestEntryCodec.encode(personDto).array());
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CreditCardRequestRepositoryImpl restoredRepository =
+                repository(folder, 1, true, SNAPSHOT_INTERVAL, true, meterRegistry);
+        restoredRepository.start();
+        Assertions.assertEquals(Pair.of(activePath, Status.ACTIVE), restoredRepository.findLatestRequest("55512345678"));
+        Assertions.assertEquals(Status.INACTIVE, restoredRepository.findLatestRequest("66612345678").getSecond());
+        Assertions.assertTrue(restoredRepository.isActiveRequestExist("66698765432"));
+        Assertions.assertEquals(3, meterRegistry.get("requests.files").gauge().value());
+    }
+
+    @Test
+    void indexSnapshotAfterCrashTest() throws IOException {
+        String folder = REQUESTS_FOLDER + "/crash";
+        String oib = "77712345678";
+        Path path = Paths.get(folder, "77", oib + "_1.txt");
+        Path unchangedPath = Paths.get(folder, "88", "88812345678_1.txt");
+        FileTime folderModifiedAt = FileTime.from(Instant.now().minusSeconds(3600));
+        for (Path requestPath : List.of(path, unchangedPath)) {
+            Files.createDirectories(requestPath.getParent());
+            Files.write(requestPath, RequestEntryCodec.encode(PersonDto.builder()
+                    .oib(requestPath.getFileName().toString().substring(0, 11))
+                    .name("Dorian")
+                    .lastName("Pavetic")
+                    .status(Status.ACTIVE)
+                    .build()).array());
+            Files.setLastModifiedTime(requestPath, folderModifiedAt);
+            Files.setLastModifiedTime(requestPath.getParent(), folderModifiedAt);
+        }
+        CreditCardRequestRepositoryImpl snapshotRepository =
+                repository(folder, 1, true, SNAPSHOT_INTERVAL, true, new SimpleMeterRegistry());
+        snapshotRepository.start();
+        snapshotRepository.close();
+        // Written while nothing watches, so that the folder is not changed in the index, and never listed
+        Path unlistedPath = unchangedPath.resolveSibling("88812345678_2.txt");
+        Files.write(unlistedPath, "Dorian Pavetic 88812345678 INACTIVE".getBytes());
+        Files.setLastModifiedTime(unlistedPath, folderModifiedAt);
+        Files.setLastModifiedTime(unlistedPath.getParent(), folderModifiedAt);
+
+        // Request is deactivated in place after the index is restored, and the process crashes
+        CreditCardRequestRepositoryImpl crashedRepository =
+                repository(folder, 1, true, SNAPSHOT_INTERVAL, true, new SimpleMeterRegistry());
+        crashedRepository.start();
+        crashedRepository.deactivateActiveRequests(oib);
+        Assertions.assertEquals(folderModifiedAt, Files.getLastModifiedTime(path.getParent()));
+
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CreditCardRequestRepositoryImpl restoredRepository =
+                repository(folder, 1, true, SNAPSHOT_INTERVAL, true, meterRegistry);
+        restoredRepository.start();
+        Assertions.assertFalse(restoredRepository.isActiveRequestExist(oib));
+        // Folder not changed in the index is still taken from the snapshot
+        Assertions.assertEquals(Pair.of(unchangedPath, Status.ACTIVE),
+                restoredRepository.findLatestRequest("88812345678"));
+        Assertions.assertEquals(2, meterRegistry.get("requests.files").gauge().value());
+    }
+
+    @Test
+    void lookupMetricsTest() throws IOException {
+        String oib = "99912345678";
+        MeterRegistry meterRegistry = new SimpleMeterRegistry();
+        CreditCardRequestRepository measuredRepository =
+                repository(REQUESTS_FOLDER + "/metrics", 0, false, NO_SNAPSHOTS, false, meterRegistry);
+        PersonDto personDto = PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+        measuredRepository.writePersonDtoRequest(Paths.get(REQUESTS_FOLDER, "metrics", oib + "_1.txt"), personDto);
+        measuredRepository.writePersonDtoRequest(Paths.get(REQUESTS_FOLDER, "metrics", oib + "_2.txt"), personDto);
+        measuredRepository.writePersonDtoRequest(Paths.get(REQUESTS_FOLDER, "metrics", "12345678901_1.txt"),
+                PersonDto.builder().oib("12345678901").name("Ivan").lastName("Horvat").status(Status.ACTIVE).build());
+        Assertions.assertEquals(3, meterRegistry.get("requests.files").gauge().value());
+
+        Assertions.assertEquals(2, measuredRepository.findActiveRequestsForPerson(oib).size());
+        // Whole folder is listed, but only person's files are read
+        Assertions.assertEquals(3, meterRegistry.get("requests.files.scanned").counter().count());
+        Assertions.assertEquals(2, meterRegistry.get("requests.files.read").counter().count());
+        Assertions.assertEquals(2 * Files.size(Paths.get(REQUESTS_FOLDER, "metrics", oib + "_1.txt")),
+                meterRegistry.get("requests.bytes.read").counter().count());
+    }
+
+    @Test
+    void requestWrittenByOtherProcessIsIndexedTest() throws IOException {
+        CreditCardRequestRepositoryImpl watchedRepository = repository(REQUESTS_FOLDER, 0, true);
+        watchedRepository.start();
+        String oib = "55512345678";
+        Assertions.assertFalse(watchedRepository.isActiveRequestExist(oib));
+
+        Path path = Paths.get(REQUESTS_FOLDER, oib + "_1.txt");
+        Files.write(path, ("Dorian Pavetic " + oib + " ACTIVE").getBytes());
+        Awaitility.await().atMost(Duration.FIVE_SECONDS)
+                .until(() -> watchedRepository.isActiveRequestExist(oib));
+
+        Files.write(path, ("Dorian Pavetic " + oib + " INACTIVE").getBytes());
+        Awaitility.await().atMost(Duration.FIVE_SECONDS)
+                .until(() -> !watchedRepository.isActiveRequestExist(oib));
+
+        Files.delete(path);
+        Awaitility.await().atMost(Duration.FIVE_SECONDS)
+                .until(() -> watchedRepository.findRequestFilesForPerson(oib).length == 0);
+    }
+
+    @Test
+    void entryWithLineBreakTest() throws IOException {
+        Files.createDirectories(Paths.get(REQUESTS_FOLDER));
+        Files.write(Paths.get(REQUESTS_FOLDER, "31234567890_1.txt"),
+                "Dorian Pavetic 31234567890 ACTIVE\nignored line".getBytes());
+        List<Pair<Path, PersonDto>> activeRequestsForPerson =
+                repository.findActiveRequestsForPerson("31234567890");
+        Assertions.assertEquals(1, activeRequestsForPerson.size());
+        Assertions.assertEquals(PersonDto.builder()
+                        .oib("31234567890")
+                        .name("Dorian")
+                        .lastName("Pavetic")
+                        .status(Status.ACTIVE)
+                        .build(),
+                activeRequestsForPerson.get(0).getSecond());
+    }
+
     @Test
     void entryNoInformationTest() throws IOException {
         Files.createDirectories(Paths.get(REQUESTS_FOLDER));
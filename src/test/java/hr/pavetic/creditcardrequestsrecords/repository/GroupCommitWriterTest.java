@@ -0,0 +1,70 @@
+package hr.pavetic.creditcardrequestsrecords.repository;
+
+import hr.pavetic.creditcardrequestsrecords.repository.impl.GroupCommitWriter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+class GroupCommitWriterTest {
+
+    @Test
+    void concurrentWritesAreCommittedTogetherTest() throws Exception {
+        List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        int writers = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try (GroupCommitWriter<Integer, String> writer = new GroupCommitWriter<>("test-writer", writes -> {
+            batches.add(writes);
+            return writes.stream().map(write -> "committed " + write).toList();
+        }, Duration.ofMillis(200), 8)) {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                int write = i;
+                results.add(executor.submit(() -> writer.write(write)));
+            }
+            for (int i = 0; i < writers; i++)
+                Assertions.assertEquals("committed " + i, results.get(i).get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals(writers, batches.stream().mapToInt(List::size).sum());
+        Assertions.assertTrue(batches.size() < writers);
+        Assertions.assertTrue(batches.stream().allMatch(batch -> batch.size() <= 8));
+    }
+
+    @Test
+    void failedCommitFailsAllWritesOfBatchTest() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (GroupCommitWriter<Integer, Integer> writer = new GroupCommitWriter<>("test-writer", writes -> {
+            throw new IOException("Disk full");
+        }, Duration.ofMillis(100), 8)) {
+            Future<Integer> first = executor.submit(() -> writer.write(1));
+            Future<Integer> second = executor.submit(() -> writer.write(2));
+            for (Future<Integer> result : List.of(first, second)) {
+                ExecutionException e = Assertions.assertThrows(ExecutionException.class, result::get);
+                Assertions.assertEquals("Disk full", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void closedWriterRejectsWritesTest() throws IOException {
+        GroupCommitWriter<Integer, Integer> writer = new GroupCommitWriter<>("test-writer",
+                writes -> writes, Duration.ZERO, 8);
+        Assertions.assertEquals(1, writer.write(1));
+        writer.close();
+        IOException e = Assertions.assertThrows(IOException.class, () -> writer.write(2));
+        Assertions.assertEquals("test-writer is closed", e.getMessage());
+    }
+}
@@ -0,0 +1,65 @@
+package hr.pavetic.creditcardrequestsrecords.repository;
+
+import hr.pavetic.creditcardrequestsrecords.repository.impl.OibBloomFilter;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class OibBloomFilterTest {
+
+    private static long oib(long i) {
+        return i * 2_654_435_761L % 100_000_000_000L;
+    }
+
+    @Test
+    void noFalseNegativesTest() {
+        OibBloomFilter filter = OibBloomFilter.create(10_000, 0.01);
+        for (long i = 0; i < 10_000; i++)
+            filter.add(oib(i));
+        for (long i = 0; i < 10_000; i++)
+            Assertions.assertTrue(filter.mightContain(oib(i)));
+    }
+
+    @Test
+    void falsePositiveProbabilityTest() {
+        OibBloomFilter filter = OibBloomFilter.create(10_000, 0.01);
+        Assertions.assertEquals(0, filter.expectedFalsePositiveProbability());
+        for (long i = 0; i < 10_000; i++)
+            filter.add(oib(i));
+
+        int falsePositives = 0;
+        for (long i = 10_000; i < 110_000; i++) {
+            if (filter.mightContain(oib(i)))
+                falsePositives++;
+        }
+        Assertions.assertTrue(falsePositives < 1_500, "False positives: " + falsePositives);
+        Assertions.assertEquals(0.01, filter.expectedFalsePositiveProbability(), 0.005);
+    }
+
+    @Test
+    void writeReadAndMergeTest(@TempDir Path folder) throws IOException {
+        OibBloomFilter filter = OibBloomFilter.create(1_000, 0.01);
+        filter.add(12345678901L);
+        Path file = folder.resolve("oibs.bloom");
+        filter.writeTo(file);
+
+        OibBloomFilter read = OibBloomFilter.readFrom(file);
+        Assertions.assertNotNull(read);
+        Assertions.assertTrue(read.mightContain(12345678901L));
+        Assertions.assertEquals(filter.expectedFalsePositiveProbability(), read.expectedFalsePositiveProbability());
+
+        OibBloomFilter merged = OibBloomFilter.create(1_000, 0.01);
+        merged.add(12345678902L);
+        Assertions.assertTrue(merged.merge(read));
+        Assertions.assertTrue(merged.mightContain(12345678901L));
+        Assertions.assertTrue(merged.mightContain(12345678902L));
+        Assertions.assertFalse(OibBloomFilter.create(1_000_000, 0.01).merge(read));
+
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13});
+        Assertions.assertNull(OibBloomFilter.readFrom(file));
+    }
+}
@@ -0,0 +1,66 @@
+package hr.pavetic.creditcardrequestsrecords.repository;
+
+import hr.pavetic.creditcardrequestsrecords.repository.impl.ParallelRequestReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+class ParallelRequestReaderTest {
+
+    private static final List<Integer> REQUESTS = IntStream.range(0, 100).boxed().toList();
+
+    @Test
+    void readsOnCallerOnceQueueIsFullTest() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try (ParallelRequestReader reader = new ParallelRequestReader(2)) {
+            // Reader thread and then its queue are taken by lookups blocked until released
+            CountDownLatch readerBlocked = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            List<Future<List<Integer>>> blockedLookups = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                CountDownLatch handedOff = new CountDownLatch(1);
+                blockedLookups.add(callers.submit(() -> reader.readAll(REQUESTS, request -> {
+                    if (!Thread.currentThread().getName().startsWith("request-reader-")) {
+                        // Batch of the caller is read only once the other batch is handed off
+                        handedOff.countDown();
+                        return request;
+                    }
+                    readerBlocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return request;
+                })));
+                Assertions.assertTrue(handedOff.await(5, TimeUnit.SECONDS));
+                Assertions.assertTrue(readerBlocked.await(5, TimeUnit.SECONDS));
+            }
+
+            // Lookup is read on the calling thread, instead of waiting in the queue
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+                    Assertions.assertEquals(REQUESTS, reader.readAll(REQUESTS, request -> request)));
+            release.countDown();
+            for (Future<List<Integer>> lookup : blockedLookups)
+                Assertions.assertEquals(REQUESTS, lookup.get(5, TimeUnit.SECONDS));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void readsOnCallerOnceClosedTest() {
+        ParallelRequestReader reader = new ParallelRequestReader(4);
+        reader.close();
+        Assertions.assertEquals(REQUESTS, reader.readAll(REQUESTS, request -> request));
+    }
+}
@@ -0,0 +1,68 @@
+package hr.pavetic.creditcardrequestsrecords.repository;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.RequestEntryCodec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class RequestEntryCodecTest {
+
+    private static PersonDto getPersonDto(String name, String lastName, Status status) {
+        return PersonDto.builder()
+                .oib("12345678907")
+                .name(name)
+                .lastName(lastName)
+                .status(status)
+                .build();
+    }
+
+    @Test
+    void encodeAndDecodeTest() {
+        PersonDto personDto = getPersonDto("Ana Marija", "Šimić Đurić", Status.ACTIVE);
+        ByteBuffer entry = RequestEntryCodec.encode(personDto);
+        Assertions.assertEquals(RequestEntryCodec.encodedLength(personDto), entry.remaining());
+
+        Assertions.assertEquals(Status.ACTIVE, RequestEntryCodec.decodeStatus(entry));
+        Assertions.assertEquals(personDto, RequestEntryCodec.decode(entry));
+        Assertions.assertEquals(personDto, RequestEntryCodec.decodeActive(entry));
+        // Decoding leaves buffer untouched
+        Assertions.assertEquals(RequestEntryCodec.encodedLength(personDto), entry.remaining());
+    }
+
+    @Test
+    void encodeIntoReusedBufferTest() {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        PersonDto inactive = getPersonDto("Dorian", "Pavetic", Status.INACTIVE);
+        RequestEntryCodec.encode(inactive, buffer);
+        buffer.flip();
+        Assertions.assertEquals(Status.INACTIVE, RequestEntryCodec.decodeStatus(buffer));
+        Assertions.assertNull(RequestEntryCodec.decodeActive(buffer));
+
+        buffer.clear();
+        PersonDto active = getPersonDto("Ivan", "Horvat", Status.ACTIVE);
+        RequestEntryCodec.encode(active, buffer);
+        buffer.flip();
+        Assertions.assertEquals(active, RequestEntryCodec.decode(buffer));
+    }
+
+    @Test
+    void decodeLegacyEntryTest() {
+        ByteBuffer entry = ByteBuffer.wrap("Dorian Pavetic 12345678907 INACTIVE"
+                .getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(Status.INACTIVE, RequestEntryCodec.decodeStatus(entry));
+        Assertions.assertEquals(getPersonDto("Dorian", "Pavetic", Status.INACTIVE),
+                RequestEntryCodec.decode(entry));
+    }
+
+    @Test
+    void decodeUnsupportedVersionTest() {
+        ByteBuffer entry = RequestEntryCodec.encode(getPersonDto("Dorian", "Pavetic", Status.ACTIVE));
+        entry.put(1, (byte) (RequestEntryCodec.VERSION + 1));
+        Assertions.assertThrows(ResponseStatusException.class, () -> RequestEntryCodec.decode(entry));
+    }
+}
@@ -0,0 +1,73 @@
+package hr.pavetic.creditcardrequestsrecords.repository;
+
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.RequestFileIndex;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.RequestsByOib;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+class RequestsByOibTest {
+
+    @Test
+    void putReplaceAndRemoveTest() {
+        RequestsByOib requestsByOib = new RequestsByOib();
+        long oib = 12345678901L;
+        Path first = Paths.get("12345678901_1.txt");
+        Path second = Paths.get("12345678901_2.txt");
+
+        requestsByOib.put(oib, new RequestFileIndex.IndexedRequest(first, Status.ACTIVE));
+        requestsByOib.put(oib, new RequestFileIndex.IndexedRequest(second, Status.ACTIVE));
+        requestsByOib.put(oib, new RequestFileIndex.IndexedRequest(first, Status.INACTIVE));
+        Assertions.assertEquals(2, requestsByOib.size());
+        Assertions.assertEquals(1, requestsByOib.people());
+        Assertions.assertEquals(Set.of(new RequestFileIndex.IndexedRequest(first, Status.INACTIVE),
+                new RequestFileIndex.IndexedRequest(second, Status.ACTIVE)), Set.copyOf(requestsByOib.get(oib)));
+
+        requestsByOib.remove(oib, first);
+        requestsByOib.remove(oib, Paths.get("12345678901_3.txt"));
+        Assertions.assertEquals(1, requestsByOib.size());
+        requestsByOib.remove(oib, second);
+        Assertions.assertEquals(0, requestsByOib.people());
+        Assertions.assertTrue(requestsByOib.get(oib).isEmpty());
+    }
+
+    @Test
+    void matchesMapUnderRandomChangesTest() {
+        RequestsByOib requestsByOib = new RequestsByOib();
+        Map<Long, Set<Path>> expected = new HashMap<>();
+        // Few distinct OIBs, so that entries collide and are removed from the middle of probe sequences
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long oib = 10_000_000_000L + random.nextInt(5_000);
+            Path path = Paths.get(oib + "_" + random.nextInt(3) + ".txt");
+            if (random.nextInt(3) == 0) {
+                requestsByOib.remove(oib, path);
+                Set<Path> paths = expected.get(oib);
+                if (paths != null && paths.remove(path) && paths.isEmpty())
+                    expected.remove(oib);
+            } else {
+                requestsByOib.put(oib, new RequestFileIndex.IndexedRequest(path, Status.ACTIVE));
+                expected.computeIfAbsent(oib, key -> new HashSet<>()).add(path);
+            }
+        }
+
+        Assertions.assertEquals(expected.size(), requestsByOib.people());
+        Assertions.assertEquals(expected.values().stream().mapToInt(Set::size).sum(), requestsByOib.size());
+        for (long oib = 10_000_000_000L; oib < 10_000_005_000L; oib++) {
+            Set<Path> paths = new HashSet<>();
+            requestsByOib.get(oib).forEach(request -> paths.add(request.path()));
+            Assertions.assertEquals(expected.getOrDefault(oib, Set.of()), paths);
+        }
+        Set<Path> iterated = new HashSet<>();
+        requestsByOib.iterator().forEachRemaining(request -> iterated.add(request.path()));
+        Assertions.assertEquals(requestsByOib.size(), iterated.size());
+    }
+}
@@ -0,0 +1,288 @@
+package hr.pavetic.creditcardrequestsrecords.repository;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.impl.SegmentedLogCreditCardRequestRepository;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.util.Pair;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+class SegmentedLogCreditCardRequestRepositoryTest {
+
+    private static final String REQUESTS_FOLDER = "test_log_requests_folder";
+
+    private SegmentedLogCreditCardRequestRepository repository;
+
+    @BeforeEach
+    void openRepository() throws IOException {
+        FileUtils.deleteDirectory(Paths.get(REQUESTS_FOLDER).toFile());
+        repository = openRepository(DataSize.ofKilobytes(1));
+    }
+
+    @AfterEach
+    void cleanupResources() throws IOException {
+        repository.close();
+        FileUtils.deleteDirectory(Paths.get(REQUESTS_FOLDER).toFile());
+    }
+
+    private static SegmentedLogCreditCardRequestRepository openRepository(DataSize segmentSize) throws IOException {
+        SegmentedLogCreditCardRequestRepository repository = new SegmentedLogCreditCardRequestRepository(
+                REQUESTS_FOLDER, segmentSize, Duration.ofHours(1), Duration.ofMillis(1), 256);
+        repository.open();
+        return repository;
+    }
+
+    private static PersonDto getPersonDto(String oib, Status status) {
+        return PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(status)
+                .build();
+    }
+
+    @Test
+    void writeAndDeactivateRequestTest() throws IOException {
+        PersonDto personDto = getPersonDto("12345678907", Status.ACTIVE);
+        Assertions.assertFalse(repository.isActiveRequestExist(personDto.getOib()));
+
+        Path path = repository.writePersonDtoRequest(personDto);
+        Assertions.assertTrue(path.getFileName().toString().startsWith(personDto.getOib() + "_"));
+        Assertions.assertTrue(repository.isActiveRequestExist(personDto.getOib()));
+
+        List<Pair<Path, PersonDto>> activeRequests = repository.findActiveRequestsForPerson(personDto.getOib());
+        Assertions.assertEquals(1, activeRequests.size());
+        Assertions.assertEquals(path, activeRequests.get(0).getFirst());
+        Assertions.assertEquals(personDto, activeRequests.get(0).getSecond());
+
+        PersonDto deactivated = activeRequests.get(0).getSecond();
+        deactivated.setStatus(Status.INACTIVE);
+        repository.writePersonDtoRequest(path, deactivated);
+        Assertions.assertFalse(repository.isActiveRequestExist(personDto.getOib()));
+        Assertions.assertTrue(repository.findActiveRequestsForPerson(personDto.getOib()).isEmpty());
+        Assertions.assertEquals(1, repository.findRequestFilesForPerson(personDto.getOib()).length);
+    }
+
+    @Test
+    void deactivateActiveRequestsTest() throws IOException {
+        String oib = "12345678907";
+        Path firstPath = repository.writePersonDtoRequest(getPersonDto(oib, Status.ACTIVE));
+        Path secondPath = repository.writePersonDtoRequest(getPersonDto(oib, Status.ACTIVE));
+        repository.writePersonDtoRequest(getPersonDto(oib, Status.INACTIVE));
+        Path otherPath = repository.writePersonDtoRequest(getPersonDto("12345678902", Status.ACTIVE));
+
+        Assertions.assertEquals(Set.of(firstPath, secondPath), Set.copyOf(repository.deactivateActiveRequests(oib)));
+        Assertions.assertEquals(0, repository.countActiveRequests(oib));
+        Assertions.assertTrue(repository.deactivateActiveRequests(oib).isEmpty());
+        Assertions.assertTrue(repository.isActiveRequestExist("12345678902"));
+
+        // Deactivation records are replayed with the rest of entry intact
+        repository.close();
+        repository = openRepository(DataSize.ofKilobytes(1));
+        Assertions.assertEquals(0, repository.countActiveRequests(oib));
+        Assertions.assertEquals(Pair.of(otherPath, Status.ACTIVE), repository.findLatestRequest("12345678902"));
+        repository.writePersonDtoRequest(firstPath, getPersonDto(oib, Status.ACTIVE));
+        Assertions.assertEquals(List.of(Pair.of(firstPath, getPersonDto(oib, Status.ACTIVE))),
+                repository.findActiveRequestsForPerson(oib));
+    }
+
+    @Test
+    void forEachActiveRequestTest() throws IOException {
+        Path firstPath = repository.writePersonDtoRequest(getPersonDto("12345678907", Status.ACTIVE));
+        Path deactivatedPath = repository.writePersonDtoRequest(getPersonDto("12345678907", Status.ACTIVE));
+        repository.writePersonDtoRequest(getPersonDto("12345678907", Status.INACTIVE));
+        Path otherPath = repository.writePersonDtoRequest(getPersonDto("12345678902", Status.ACTIVE));
+        repository.writePersonDtoRequest(deactivatedPath, getPersonDto("12345678907", Status.INACTIVE));
+
+        List<Pair<Path, PersonDto>> visited = new ArrayList<>();
+        repository.forEachActiveRequest((requestPath, personDto) -> visited.add(Pair.of(requestPath, personDto)));
+        Assertions.assertEquals(Set.of(
+                        Pair.of(firstPath, getPersonDto("12345678907", Status.ACTIVE)),
+                        Pair.of(otherPath, getPersonDto("12345678902", Status.ACTIVE))),
+                Set.copyOf(visited));
+        Assertions.assertEquals(2, visited.size());
+    }
+
+    @Test
+    void countAndFindLatestRequestTest() throws IOException {
+        String oib = "12345678907";
+        Assertions.assertEquals(0, repository.countActiveRequests(oib));
+        Assertions.assertNull(repository.findLatestRequest(oib));
+
+        repository.writePersonDtoRequest(getPersonDto(oib, Status.ACTIVE));
+        Path inactivePath = repository.writePersonDtoRequest(getPersonDto(oib, Status.INACTIVE));
+        Path latestPath = repository.writePersonDtoRequest(getPersonDto(oib, Status.ACTIVE));
+        Assertions.assertEquals(2, repository.countActiveRequests(oib));
+        Assertions.assertEquals(Pair.of(latestPath, Status.ACTIVE), repository.findLatestRequest(oib));
+
+        // Rewriting older request does not make it the latest one
+        repository.writePersonDtoRequest(inactivePath, getPersonDto(oib, Status.ACTIVE));
+        Assertions.assertEquals(3, repository.countActiveRequests(oib));
+        Assertions.assertEquals(Pair.of(latestPath, Status.ACTIVE), repository.findLatestRequest(oib));
+    }
+
+    @Test
+    void writeRequestsInBulkTest() throws IOException {
+        List<PersonDto> personDtos = new ArrayList<>();
+        for (int i = 0; i < 40; i++)
+            personDtos.add(getPersonDto(String.format("%011d", 12345678000L + i), Status.ACTIVE));
+        repository.writePersonDtoRequest(getPersonDto("12345678999", Status.ACTIVE));
+
+        // Batch does not fit into a single 1KB segment
+        List<Path> paths = repository.writePersonDtoRequests(personDtos);
+        Assertions.assertEquals(40, paths.size());
+        Assertions.assertTrue(segmentFiles().size() > 1);
+        Assertions.assertEquals(Set.of("12345678000", "12345678039", "12345678999"),
+                repository.findOibsWithActiveRequest(List.of("12345678000", "12345678039", "12345678999", "98765432109")));
+
+        repository.close();
+        repository = openRepository(DataSize.ofKilobytes(1));
+        for (int i = 0; i < personDtos.size(); i++) {
+            List<Pair<Path, PersonDto>> activeRequests =
+                    repository.findActiveRequestsForPerson(personDtos.get(i).getOib());
+            Assertions.assertEquals(List.of(Pair.of(paths.get(i), personDtos.get(i))), activeRequests);
+        }
+    }
+
+    @Test
+    void recoverStateAfterRestartTest() throws IOException {
+        PersonDto active = getPersonDto("12345678907", Status.ACTIVE);
+        PersonDto inactive = getPersonDto("12345678902", Status.INACTIVE);
+        Path activePath = repository.writePersonDtoRequest(active);
+        repository.writePersonDtoRequest(inactive);
+        repository.close();
+
+        repository = openRepository(DataSize.ofKilobytes(1));
+        Assertions.assertTrue(repository.isActiveRequestExist(active.getOib()));
+        Assertions.assertFalse(repository.isActiveRequestExist(inactive.getOib()));
+        Assertions.assertEquals(activePath,
+                repository.findActiveRequestsForPerson(active.getOib()).get(0).getFirst());
+
+        // New requests get new ids after restart
+        Path secondPath = repository.writePersonDtoRequest(active);
+        Assertions.assertNotEquals(activePath, secondPath);
+        Assertions.assertEquals(2, repository.findActiveRequestsForPerson(active.getOib()).size());
+    }
+
+    @Test
+    void writeRequestsConcurrentlyTest() throws Exception {
+        int writers = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            List<Future<Path>> paths = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                PersonDto personDto = getPersonDto(String.format("%011d", 12345678000L + i), Status.ACTIVE);
+                paths.add(executor.submit(() -> repository.writePersonDtoRequest(personDto)));
+            }
+            // Every write is indexed once it returns
+            for (int i = 0; i < writers; i++) {
+                Path path = paths.get(i).get();
+                Assertions.assertEquals(List.of(Pair.of(path, getPersonDto(String.format("%011d", 12345678000L + i),
+                        Status.ACTIVE))), repository.findActiveRequestsForPerson(String.format("%011d", 12345678000L + i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        repository.close();
+        repository = openRepository(DataSize.ofKilobytes(1));
+        for (int i = 0; i < writers; i++)
+            Assertions.assertTrue(repository.isActiveRequestExist(String.format("%011d", 12345678000L + i)));
+    }
+
+    @Test
+    void truncateTornRecordTest() throws IOException {
+        PersonDto personDto = getPersonDto("12345678907", Status.ACTIVE);
+        repository.writePersonDtoRequest(personDto);
+        repository.close();
+
+        // Simulate crash in the middle of an append
+        Path segment = segmentFiles().get(0);
+        long validSize = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3}));
+        }
+
+        repository = openRepository(DataSize.ofKilobytes(1));
+        Assertions.assertEquals(validSize, Files.size(segment));
+        Assertions.assertTrue(repository.isActiveRequestExist(personDto.getOib()));
+    }
+
+    @Test
+    void rollAndCompactSegmentsTest() throws IOException {
+        PersonDto personDto = getPersonDto("12345678907", Status.ACTIVE);
+        for (int i = 0; i < 100; i++) {
+            Path path = repository.writePersonDtoRequest(personDto);
+            PersonDto deactivated = getPersonDto(personDto.getOib(), Status.INACTIVE);
+            repository.writePersonDtoRequest(path, deactivated);
+        }
+        Path lastActive = repository.writePersonDtoRequest(personDto);
+        int segmentsBeforeCompaction = segmentFiles().size();
+        Assertions.assertTrue(segmentsBeforeCompaction > 2);
+
+        repository.compact();
+        // Sealed segments are merged as long as their live records fit into one, active segment stays as is
+        Assertions.assertTrue(segmentFiles().size() < segmentsBeforeCompaction);
+        Assertions.assertEquals(lastActive,
+                repository.findActiveRequestsForPerson(personDto.getOib()).get(0).getFirst());
+
+        repository.close();
+        repository = openRepository(DataSize.ofKilobytes(1));
+        List<Pair<Path, PersonDto>> activeRequests = repository.findActiveRequestsForPerson(personDto.getOib());
+        Assertions.assertEquals(1, activeRequests.size());
+        Assertions.assertEquals(lastActive, activeRequests.get(0).getFirst());
+    }
+
+    @Test
+    void compactedSegmentsStayWithinSegmentSizeTest() throws IOException {
+        List<String> oibs = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            String oib = String.valueOf(10000000000L + i);
+            oibs.add(oib);
+            Path path = repository.writePersonDtoRequest(getPersonDto(oib, Status.ACTIVE));
+            // Request is written again, so most records are superseded
+            repository.writePersonDtoRequest(path, getPersonDto(oib, Status.INACTIVE));
+            repository.writePersonDtoRequest(path, getPersonDto(oib, i % 2 == 0 ? Status.INACTIVE : Status.ACTIVE));
+        }
+        int segmentsBeforeCompaction = segmentFiles().size();
+
+        repository.compact();
+        List<Path> segmentsAfterCompaction = segmentFiles();
+        // Live records do not fit into a single segment, so they are spread over several
+        Assertions.assertTrue(segmentsAfterCompaction.size() > 2);
+        Assertions.assertTrue(segmentsAfterCompaction.size() < segmentsBeforeCompaction);
+        for (Path segment : segmentsAfterCompaction)
+            Assertions.assertTrue(Files.size(segment) <= DataSize.ofKilobytes(1).toBytes());
+
+        repository.close();
+        repository = openRepository(DataSize.ofKilobytes(1));
+        for (int i = 0; i < oibs.size(); i++)
+            Assertions.assertEquals(i % 2 != 0, repository.isActiveRequestExist(oibs.get(i)));
+    }
+
+    private static List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(REQUESTS_FOLDER, SegmentedLogCreditCardRequestRepository.SEGMENTS_FOLDER))) {
+            return files.sorted().toList();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package hr.pavetic.creditcardrequestsrecords.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.dto.RequestExportFormat;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
+import hr.pavetic.creditcardrequestsrecords.service.impl.CreditCardRequestExportServiceImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.List;
+
+class CreditCardRequestExportServiceTest {
+    private final CreditCardRequestRepository creditCardRequestRepository =
+            Mockito.mock(CreditCardRequestRepository.class);
+    private final CreditCardRequestExportService creditCardRequestExportService =
+            new CreditCardRequestExportServiceImpl(creditCardRequestRepository, new ObjectMapper());
+
+    private static PersonDto getPersonDto(String oib, String name) {
+        return PersonDto.builder()
+                .oib(oib)
+                .name(name)
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+    }
+
+    private void givenActiveRequests(PersonDto... personDtos) throws IOException {
+        Mockito.doAnswer(invocation -> {
+            CreditCardRequestRepository.RequestVisitor visitor = invocation.getArgument(0);
+            for (PersonDto personDto : personDtos)
+                visitor.visit(Paths.get(personDto.getOib() + "_1.txt"), personDto);
+            return null;
+        }).when(creditCardRequestRepository).forEachActiveRequest(ArgumentMatchers.any());
+    }
+
+    private String export(RequestExportFormat format, long expectedCount) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Assertions.assertEquals(expectedCount,
+                creditCardRequestExportService.exportActiveCreditCardRequests(format, output));
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void exportNdjsonTest() throws IOException {
+        givenActiveRequests(getPersonDto("12345678901", "Dorian"), getPersonDto("12345678902", "Ana"));
+
+        String exported = export(RequestExportFormat.NDJSON, 2);
+        List<String> lines = exported.lines().toList();
+        Assertions.assertEquals(2, lines.size());
+        Assertions.assertTrue(exported.endsWith("\n"));
+        ObjectMapper objectMapper = new ObjectMapper();
+        Assertions.assertEquals(getPersonDto("12345678901", "Dorian"), objectMapper.readValue(lines.get(0), PersonDto.class));
+        Assertions.assertEquals(getPersonDto("12345678902", "Ana"), objectMapper.readValue(lines.get(1), PersonDto.class));
+    }
+
+    @Test
+    void exportCsvTest() throws IOException {
+        givenActiveRequests(getPersonDto("12345678901", "Dorian"), getPersonDto("12345678902", "Ana, \"Marija\""));
+
+        Assertions.assertEquals("""
+                oib,name,lastName,status
+                12345678901,Dorian,Pavetic,ACTIVE
+                12345678902,"Ana, ""Marija\""",Pavetic,ACTIVE
+                """, export(RequestExportFormat.CSV, 2));
+    }
+
+    @Test
+    void exportNothingTest() throws IOException {
+        givenActiveRequests();
+
+        Assertions.assertEquals("", export(RequestExportFormat.NDJSON, 0));
+        Assertions.assertEquals("oib,name,lastName,status\n", export(RequestExportFormat.CSV, 0));
+    }
+}
@@ -1,30 +1,61 @@
 package hr.pavetic.creditcardrequestsrecords.service;
 
+import hr.pavetic.creditcardrequestsrecords.config.CacheConfig;
+import hr.pavetic.creditcardrequestsrecords.dto.CreditCardRequestOutcome;
 import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOperation;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOutboxEntry;
 import hr.pavetic.creditcardrequestsrecords.model.Status;
 import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
 import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import hr.pavetic.creditcardrequestsrecords.repository.RequestOutboxRepository;
 import hr.pavetic.creditcardrequestsrecords.repository.impl.CreditCardRequestRepositoryImpl;
 import hr.pavetic.creditcardrequestsrecords.service.impl.CreditCardRequestServiceImpl;
+import hr.pavetic.creditcardrequestsrecords.service.impl.RequestOutboxRelay;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mockito;
-import org.springframework.data.util.Pair;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 class CreditCardRequestServiceTest {
     private final CreditCardRequestRepository creditCardRequestRepository =
             Mockito.mock(CreditCardRequestRepositoryImpl.class);
     private final PersonRepository personRepository =
             Mockito.mock(PersonRepository.class);
-    private final CreditCardRequestService creditCardRequestService =
-            new CreditCardRequestServiceImpl(creditCardRequestRepository, personRepository);
+    private final RequestOutboxRepository requestOutboxRepository =
+            Mockito.mock(RequestOutboxRepository.class);
+    private final RequestOutboxRelay requestOutboxRelay =
+            Mockito.mock(RequestOutboxRelay.class);
+    private final CacheManager cacheManager =
+            new ConcurrentMapCacheManager(CacheConfig.PERSONS_CACHE);
+    private final PlatformTransactionManager transactionManager =
+            Mockito.mock(PlatformTransactionManager.class);
+    private final CreditCardRequestService creditCardRequestService = new CreditCardRequestServiceImpl(
+            creditCardRequestRepository, personRepository, requestOutboxRepository, requestOutboxRelay, cacheManager,
+            new TransactionTemplate(transactionManager));
 
     private static PersonDto getPersonDto(Status status) {
         return PersonDto.builder()
@@ -43,11 +74,14 @@ class CreditCardRequestServiceTest {
                 .thenReturn(1);
         Mockito.when(creditCardRequestRepository.isActiveRequestExist(personDto.getOib()))
                 .thenReturn(false);
-        Mockito.when(creditCardRequestRepository.writePersonDtoRequest(personDto))
-                .thenReturn(Paths.get("requests", personDto.getOib() + ".txt"));
 
         boolean isSuccess = creditCardRequestService.createCreditCardRequest(personDto);
         Assertions.assertTrue(isSuccess);
+        // Request is written by the relay, not while the record is being updated
+        Mockito.verify(requestOutboxRepository).save(ArgumentMatchers.argThat(entry ->
+                entry.getOperation() == RequestOperation.CREATE && entry.getOib().equals(personDto.getOib())));
+        Mockito.verify(requestOutboxRelay).wakeUp();
+        Mockito.verify(creditCardRequestRepository, Mockito.never()).writePersonDtoRequest(personDto);
     }
 
     @Test
@@ -67,8 +101,6 @@ class CreditCardRequestServiceTest {
     void createCreditCardRequestActiveAlreadyExistTest() {
         PersonDto personDto = getPersonDto(Status.INACTIVE);
 
-        Mockito.when(personRepository.updateStatusByOib(Status.ACTIVE, personDto.getOib()))
-                .thenReturn(1);
         Mockito.when(creditCardRequestRepository.isActiveRequestExist(personDto.getOib()))
                 .thenReturn(true);
 
@@ -76,78 +108,227 @@ class CreditCardRequestServiceTest {
                 () -> creditCardRequestService.createCreditCardRequest(personDto));
         Assertions.assertEquals(
                 "Credit card is already being made for given person", e.getReason());
+        // Rejected request does not touch the record
+        Mockito.verify(personRepository, Mockito.never())
+                .updateStatusByOib(ArgumentMatchers.any(), ArgumentMatchers.any());
     }
 
     @Test
-    void createCreditCardRequestIOExceptionTest() throws IOException {
+    void createCreditCardRequestPendingInOutboxTest() {
         PersonDto personDto = getPersonDto(Status.INACTIVE);
 
-        Mockito.when(personRepository.updateStatusByOib(Status.ACTIVE, personDto.getOib()))
-                .thenReturn(1);
-        Mockito.when(creditCardRequestRepository.isActiveRequestExist(personDto.getOib()))
-                .thenReturn(false);
-        Mockito.when(creditCardRequestRepository.writePersonDtoRequest(personDto))
-                .thenThrow(new IOException("some error"));
+        // Request is not written yet, but its creation is pending
+        Mockito.when(requestOutboxRepository.findPendingOperations(personDto.getOib()))
+                .thenReturn(List.of(RequestOperation.CREATE));
 
         ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class,
                 () -> creditCardRequestService.createCreditCardRequest(personDto));
         Assertions.assertEquals(
-                "There was a problem creating credit card request", e.getReason());
-        Assertions.assertEquals("some error", e.getCause().getMessage());
+                "Credit card is already being made for given person", e.getReason());
+        Mockito.verify(creditCardRequestRepository, Mockito.never()).isActiveRequestExist(personDto.getOib());
+
+        // Pending deactivation overrides the active request
+        Mockito.when(requestOutboxRepository.findPendingOperations(personDto.getOib()))
+                .thenReturn(List.of(RequestOperation.CREATE, RequestOperation.DEACTIVATE));
+        Mockito.when(personRepository.updateStatusByOib(Status.ACTIVE, personDto.getOib()))
+                .thenReturn(1);
+        Assertions.assertTrue(creditCardRequestService.createCreditCardRequest(personDto));
     }
 
     @Test
-    void deactivateCreditCardRequestTest() throws IOException {
-        PersonDto personDto = getPersonDto(Status.ACTIVE);
+    void createCreditCardRequestConcurrentlyTest() throws Exception {
+        PersonDto personDto = getPersonDto(Status.INACTIVE);
+        AtomicBoolean createPending = new AtomicBoolean();
 
-        List<Pair<Path, PersonDto>> activeRequestFilesForPerson = new ArrayList<>();
-        Path path = Paths.get("requests/" + personDto.getOib() + ".txt");
-        activeRequestFilesForPerson.add(Pair.of(path, personDto));
+        Mockito.when(personRepository.updateStatusByOib(Status.ACTIVE, personDto.getOib()))
+                .thenReturn(1);
+        Mockito.when(requestOutboxRepository.findPendingOperations(personDto.getOib()))
+                .thenAnswer(invocation -> createPending.get() ? List.of(RequestOperation.CREATE) : List.of());
+        Mockito.when(requestOutboxRepository.save(ArgumentMatchers.any(RequestOutboxEntry.class)))
+                .thenAnswer(invocation -> {
+                    // Widen the window between check and write
+                    Thread.sleep(20);
+                    createPending.set(true);
+                    return invocation.getArgument(0);
+                });
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++)
+                results.add(executor.submit(() -> {
+                    try {
+                        return creditCardRequestService.createCreditCardRequest(personDto);
+                    } catch (ResponseStatusException e) {
+                        return false;
+                    }
+                }));
+            long created = 0;
+            for (Future<Boolean> result : results)
+                if (result.get())
+                    created++;
+            Assertions.assertEquals(1, created);
+        } finally {
+            executor.shutdownNow();
+        }
+        Mockito.verify(requestOutboxRepository, Mockito.times(1)).save(ArgumentMatchers.any(RequestOutboxEntry.class));
+    }
 
-        Mockito.when(creditCardRequestRepository.findActiveRequestsForPerson(personDto.getOib()))
-                .thenReturn(activeRequestFilesForPerson);
-        Mockito.when(creditCardRequestRepository.writePersonDtoRequest(path, personDto))
-                .thenReturn(path);
+    @Test
+    void createAndCompleteCreditCardRequestConcurrentlyTest() throws Exception {
+        PersonDto personDto = getPersonDto(Status.INACTIVE);
+        // Row lock of the person, held until the transaction completes as in the database
+        ReentrantLock rowLock = new ReentrantLock();
+        Mockito.when(personRepository.updateStatusByOib(ArgumentMatchers.any(), ArgumentMatchers.eq(personDto.getOib())))
+                .thenAnswer(invocation -> {
+                    if (!rowLock.tryLock(2, TimeUnit.SECONDS))
+                        throw new PessimisticLockingFailureException("Timeout trying to lock table");
+                    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public void afterCompletion(int status) {
+                            rowLock.unlock();
+                        }
+                    });
+                    // Widen the window in which the other operation takes its first lock
+                    Thread.sleep(100);
+                    return 1;
+                });
+        Mockito.when(creditCardRequestRepository.isActiveRequestExist(personDto.getOib()))
+                .thenAnswer(invocation -> {
+                    Thread.sleep(100);
+                    return false;
+                });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            Future<Boolean> created = executor.submit(() -> inTransaction(start,
+                    () -> creditCardRequestService.createCreditCardRequest(personDto)));
+            Future<String> completed = executor.submit(() -> inTransaction(start,
+                    () -> creditCardRequestService.completeCreditCardRequest(personDto)));
+            start.countDown();
+            // Neither operation times out waiting for the lock held by the other
+            Assertions.assertTrue(created.get());
+            Assertions.assertNotNull(completed.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-        int count = creditCardRequestService.deactivateCreditCardRequest(personDto.getOib());
-        Assertions.assertEquals(1, count);
+    /**
+     * Runs the operation as if in a transaction, completing it afterwards.
+     */
+    private static <T> T inTransaction(CountDownLatch start, Callable<T> operation) throws Exception {
+        start.await();
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            return operation.call();
+        } finally {
+            List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+            TransactionSynchronizationManager.clearSynchronization();
+            synchronizations.forEach(synchronization ->
+                    synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        }
     }
 
     @Test
-    void deactivateCreditCardRequestIOExceptionTest() throws IOException {
-        PersonDto personDto = getPersonDto(Status.ACTIVE);
-        String oib = personDto.getOib();
+    void createCreditCardRequestsTest() {
+        Person inactive = getPersonDto(Status.INACTIVE).toDomain(Status.INACTIVE);
+        inactive.setOib("12345678901");
+        Person active = getPersonDto(Status.ACTIVE).toDomain(Status.ACTIVE);
+        active.setOib("12345678902");
+        List<String> oibs = List.of("12345678901", "12345678902", "12345678903", "123", "12345678901");
+
+        Mockito.when(personRepository.findAllById(List.of("12345678901", "12345678902", "12345678903")))
+                .thenReturn(List.of(inactive, active));
+        Mockito.when(creditCardRequestRepository.findOibsWithActiveRequest(List.of("12345678901", "12345678902")))
+                .thenReturn(Set.of("12345678902"));
+
+        cacheManager.getCache(CacheConfig.PERSONS_CACHE).put("12345678901", new PersonDto(inactive));
+        cacheManager.getCache(CacheConfig.PERSONS_CACHE).put("12345678902", new PersonDto(active));
+
+        Map<String, CreditCardRequestOutcome> outcomes = creditCardRequestService.createCreditCardRequests(oibs);
+        Assertions.assertEquals(List.of("12345678901", "12345678902", "12345678903", "123"),
+                List.copyOf(outcomes.keySet()));
+        Assertions.assertEquals(CreditCardRequestOutcome.CREATED, outcomes.get("12345678901"));
+        Assertions.assertEquals(CreditCardRequestOutcome.ALREADY_ACTIVE, outcomes.get("12345678902"));
+        Assertions.assertEquals(CreditCardRequestOutcome.PERSON_NOT_FOUND, outcomes.get("12345678903"));
+        Assertions.assertEquals(CreditCardRequestOutcome.INVALID_OIB, outcomes.get("123"));
+
+        Mockito.verify(personRepository).updateStatusByOibIn(Status.ACTIVE, List.of("12345678901"));
+        // Only person whose status changed is evicted
+        Assertions.assertNull(cacheManager.getCache(CacheConfig.PERSONS_CACHE).get("12345678901"));
+        Assertions.assertNotNull(cacheManager.getCache(CacheConfig.PERSONS_CACHE).get("12345678902"));
+        Mockito.verify(requestOutboxRepository).saveAll(ArgumentMatchers.<List<RequestOutboxEntry>>argThat(entries ->
+                entries.size() == 1 && entries.get(0).getOib().equals("12345678901")
+                        && entries.get(0).getOperation() == RequestOperation.CREATE));
+    }
 
-        List<Pair<Path, PersonDto>> activeRequestFilesForPerson = new ArrayList<>();
-        Path path = Paths.get("requests/" + oib + ".txt");
-        activeRequestFilesForPerson.add(Pair.of(path, personDto));
+    @Test
+    void createCreditCardRequestsChunkPerTransactionTest() {
+        List<String> oibs = new ArrayList<>();
+        for (int i = 0; i < 501; i++)
+            oibs.add(String.valueOf(10000000000L + i));
+
+        Map<String, CreditCardRequestOutcome> outcomes = creditCardRequestService.createCreditCardRequests(oibs);
+        Assertions.assertEquals(501, outcomes.size());
+        // Each chunk is committed on its own, so its locks are not held while next chunks are processed
+        Mockito.verify(transactionManager, Mockito.times(2)).getTransaction(ArgumentMatchers.any());
+        Mockito.verify(transactionManager, Mockito.times(2)).commit(ArgumentMatchers.any());
+        Mockito.verify(personRepository).findAllById(oibs.subList(0, 500));
+        Mockito.verify(personRepository).findAllById(oibs.subList(500, 501));
+    }
 
-        Mockito.when(creditCardRequestRepository.findActiveRequestsForPerson(oib))
-                .thenReturn(activeRequestFilesForPerson);
-        Mockito.when(creditCardRequestRepository.writePersonDtoRequest(path, personDto))
-                .thenThrow(new IOException("some error"));
+    @Test
+    void deactivateCreditCardRequestTest() {
+        String oib = getPersonDto(Status.ACTIVE).getOib();
 
-        ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class,
-                () -> creditCardRequestService.deactivateCreditCardRequest(oib));
-        Assertions.assertEquals(
-                "There was a problem updating credit card request status", e.getReason());
-        Assertions.assertEquals("some error", e.getCause().getMessage());
+        Mockito.when(creditCardRequestRepository.countActiveRequests(oib))
+                .thenReturn(1);
+
+        int count = creditCardRequestService.deactivateCreditCardRequest(oib);
+        Assertions.assertEquals(1, count);
+        Mockito.verify(requestOutboxRepository).save(ArgumentMatchers.argThat(entry ->
+                entry.getOperation() == RequestOperation.DEACTIVATE && entry.getOib().equals(oib)));
+        Mockito.verify(requestOutboxRelay).wakeUp();
     }
 
     @Test
-    void completeCreditCardRequestSuccessTest() throws IOException {
+    void deactivateCreditCardRequestPendingInOutboxTest() {
+        String oib = getPersonDto(Status.ACTIVE).getOib();
+
+        // Pending request is counted, even though it is not written yet
+        Mockito.when(requestOutboxRepository.findPendingOperations(oib))
+                .thenReturn(List.of(RequestOperation.CREATE));
+        Assertions.assertEquals(1, creditCardRequestService.deactivateCreditCardRequest(oib));
+
+        // Requests are already being deactivated - no entry is needed
+        Mockito.when(requestOutboxRepository.findPendingOperations(oib))
+                .thenReturn(List.of(RequestOperation.CREATE, RequestOperation.DEACTIVATE));
+        Assertions.assertEquals(0, creditCardRequestService.deactivateCreditCardRequest(oib));
+        Mockito.verify(requestOutboxRepository, Mockito.times(1)).save(ArgumentMatchers.any(RequestOutboxEntry.class));
+    }
+
+    @Test
+    void scheduleCreditCardRequestDeactivationTest() {
+        String oib = getPersonDto(Status.ACTIVE).getOib();
+
+        creditCardRequestService.scheduleCreditCardRequestDeactivation(oib);
+        Mockito.verify(requestOutboxRepository).save(ArgumentMatchers.argThat(entry ->
+                entry.getOperation() == RequestOperation.DEACTIVATE && entry.getOib().equals(oib)));
+        // Requests are not read before deactivation is committed
+        Mockito.verifyNoInteractions(creditCardRequestRepository);
+    }
+
+    @Test
+    void completeCreditCardRequestSuccessTest() {
         PersonDto personDto = getPersonDto(Status.INACTIVE);
 
         Mockito.when(personRepository.updateStatusByOib(Status.INACTIVE, personDto.getOib()))
                 .thenReturn(1);
-        List<Pair<Path, PersonDto>> activeRequestFilesForPerson = new ArrayList<>();
-        Path path = Paths.get("requests/" + personDto.getOib() + ".txt");
-        activeRequestFilesForPerson.add(Pair.of(path, personDto));
-
-        Mockito.when(creditCardRequestRepository.findActiveRequestsForPerson(personDto.getOib()))
-                .thenReturn(activeRequestFilesForPerson);
-        Mockito.when(creditCardRequestRepository.writePersonDtoRequest(personDto))
-                .thenReturn(path);
+        Mockito.when(creditCardRequestRepository.countActiveRequests(personDto.getOib()))
+                .thenReturn(1);
 
         String result = creditCardRequestService.completeCreditCardRequest(personDto);
         Assertions.assertEquals("Credit card request(s) completed: 1", result);
@@ -159,17 +340,12 @@ class CreditCardRequestServiceTest {
 
         Mockito.when(personRepository.updateStatusByOib(Status.INACTIVE, personDto.getOib()))
                 .thenReturn(0);
-        List<Pair<Path, PersonDto>> activeRequestFilesForPerson = new ArrayList<>();
-        Path path = Paths.get("requests/" + personDto.getOib() + ".txt");
-        activeRequestFilesForPerson.add(Pair.of(path, personDto));
-
-        Mockito.when(creditCardRequestRepository.findActiveRequestsForPerson(personDto.getOib()))
-                .thenReturn(activeRequestFilesForPerson);
 
         ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class,
                 () -> creditCardRequestService.completeCreditCardRequest(personDto));
         Assertions.assertEquals(
                 "The person you want to complete a credit card request does not exist", e.getReason());
+        Mockito.verify(requestOutboxRepository, Mockito.never()).save(ArgumentMatchers.any(RequestOutboxEntry.class));
     }
 
     @Test
@@ -178,8 +354,6 @@ class CreditCardRequestServiceTest {
 
         Mockito.when(personRepository.updateStatusByOib(Status.INACTIVE, personDto.getOib()))
                 .thenReturn(1);
-        Mockito.when(creditCardRequestRepository.findActiveRequestsForPerson(personDto.getOib()))
-                .thenReturn(new ArrayList<>());
 
         String result = creditCardRequestService.completeCreditCardRequest(personDto);
         Assertions.assertEquals("No credit card requests to complete for given person.", result);
@@ -0,0 +1,88 @@
+package hr.pavetic.creditcardrequestsrecords.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonImportResultDto;
+import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import hr.pavetic.creditcardrequestsrecords.service.impl.PersonImportServiceImpl;
+import hr.pavetic.creditcardrequestsrecords.service.impl.PersonServiceImpl;
+import jakarta.validation.Validation;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+class PersonImportServiceTest {
+    private final PersonRepository personRepository =
+            Mockito.mock(PersonRepository.class);
+    private final PersonService personService =
+            Mockito.mock(PersonServiceImpl.class);
+    private final PersonImportService personImportService = new PersonImportServiceImpl(
+            personRepository,
+            personService,
+            new ObjectMapper(),
+            Validation.buildDefaultValidatorFactory().getValidator(),
+            new TransactionTemplate(Mockito.mock(PlatformTransactionManager.class)),
+            new ConcurrentMapCacheManager(),
+            3);
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String person(String oib) {
+        return "{\"oib\":\"" + oib + "\",\"name\":\"Dorian\",\"lastName\":\"Pavetic\",\"status\":\"ACTIVE\"}";
+    }
+
+    @Test
+    void importJsonArrayTest() {
+        String persons = "[" + String.join(",",
+                person("12345678901"), person("123"), person("12345678902"), person("12345678901")) + "]";
+
+        PersonImportResultDto result = personImportService.importPersons(body(persons));
+        Assertions.assertEquals(2, result.getCreated());
+        Assertions.assertEquals(2, result.getRejected());
+        Assertions.assertEquals(List.of(
+                new PersonImportResultDto.RejectedPerson(1, "123", "OIB must contain exactly 11 digits"),
+                new PersonImportResultDto.RejectedPerson(3, "12345678901",
+                        "Person with given OIB already exists in record")
+        ), result.getRejectedPersons());
+        // 2 valid records are inserted as a single chunk
+        Mockito.verify(personRepository, Mockito.times(1)).saveAll(ArgumentMatchers.anyList());
+    }
+
+    @Test
+    void importNdjsonFallsBackToSingleInsertsTest() {
+        String persons = String.join("\n", person("12345678901"), person("12345678902"), person("12345678903"));
+        Mockito.when(personRepository.saveAll(ArgumentMatchers.anyList()))
+                .thenThrow(new DataIntegrityViolationException("duplicate"));
+        Mockito.when(personService.createPerson(ArgumentMatchers.argThat(personDto ->
+                        personDto != null && personDto.getOib().equals("12345678902"))))
+                .thenThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "Person with given OIB already exists in record"));
+
+        PersonImportResultDto result = personImportService.importPersons(body(persons));
+        Assertions.assertEquals(2, result.getCreated());
+        Assertions.assertEquals(List.of(new PersonImportResultDto.RejectedPerson(1, "12345678902",
+                "Person with given OIB already exists in record")), result.getRejectedPersons());
+    }
+
+    @Test
+    void importMalformedBodyTest() {
+        String persons = person("12345678901") + "\n" + person("12345678902") + "\n{\"oib\":";
+
+        ResponseStatusException e = Assertions.assertThrows(ResponseStatusException.class,
+                () -> personImportService.importPersons(body(persons)));
+        Assertions.assertEquals("Malformed person at record 2, 2 person(s) imported before it", e.getReason());
+    }
+}
@@ -0,0 +1,77 @@
+package hr.pavetic.creditcardrequestsrecords.service;
+
+import hr.pavetic.creditcardrequestsrecords.config.CacheConfig;
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.Person;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.PersonRepository;
+import hr.pavetic.creditcardrequestsrecords.service.impl.PersonServiceImpl;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringJUnitConfig;
+
+@SpringJUnitConfig(classes = {CacheConfig.class, PersonServiceImpl.class})
+@TestPropertySource(properties = "person-cache-spec=maximumSize=100,recordStats")
+class PersonServiceCacheTest {
+    @MockBean
+    private PersonRepository personRepository;
+    @MockBean
+    private CreditCardRequestService creditCardRequestService;
+    @Autowired
+    private PersonService personService;
+    @Autowired
+    private CacheManager cacheManager;
+
+    @BeforeEach
+    void clearCache() {
+        cacheManager.getCache(CacheConfig.PERSONS_CACHE).clear();
+    }
+
+    private static Person getPerson() {
+        Person person = new Person();
+        person.setOib("12345678907");
+        person.setName("Dorian");
+        person.setLastName("Pavetic");
+        person.setStatus(Status.INACTIVE);
+        return person;
+    }
+
+    @Test
+    void repeatedSearchIsCachedTest() {
+        Person person = getPerson();
+        Mockito.when(personRepository.findByOibOrderByIdDesc(person.getOib())).thenReturn(person);
+
+        Assertions.assertEquals(new PersonDto(person), personService.searchPersonByOIB(person.getOib()));
+        Assertions.assertEquals(new PersonDto(person), personService.searchPersonByOIB(person.getOib()));
+        Mockito.verify(personRepository, Mockito.times(1)).findByOibOrderByIdDesc(person.getOib());
+    }
+
+    @Test
+    void createAndDeleteEvictCachedPersonTest() {
+        Person person = getPerson();
+        String oib = person.getOib();
+
+        // Non-existence is cached as well, until person is created
+        Assertions.assertNull(personService.searchPersonByOIB(oib));
+        Assertions.assertNull(personService.searchPersonByOIB(oib));
+        Mockito.verify(personRepository, Mockito.times(1)).findByOibOrderByIdDesc(oib);
+
+        Mockito.when(personRepository.saveAndFlush(ArgumentMatchers.any(Person.class))).thenReturn(person);
+        personService.createPerson(new PersonDto(person));
+        Mockito.when(personRepository.findByOibOrderByIdDesc(oib)).thenReturn(person);
+        Assertions.assertEquals(new PersonDto(person), personService.searchPersonByOIB(oib));
+
+        Mockito.when(personRepository.deleteByOib(oib)).thenReturn(1);
+        personService.deletePersonByOIB(oib);
+        Mockito.when(personRepository.findByOibOrderByIdDesc(oib)).thenReturn(null);
+        Assertions.assertNull(personService.searchPersonByOIB(oib));
+        Mockito.verify(personRepository, Mockito.times(3)).findByOibOrderByIdDesc(oib);
+    }
+}
@@ -10,6 +10,7 @@ import org.hibernate.exception.ConstraintViolationException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.web.server.ResponseStatusException;
@@ -135,12 +136,15 @@ class PersonServiceTest {
                 .when(personRepository.deleteByOib("123"))
                 .thenReturn(1);
 
-        // Response should still return number of people deleted - 1
-        Mockito.when(creditCardRequestService.deactivateCreditCardRequest("123"))
-                .thenReturn(120);
-
         String result = personService.deletePersonByOIB("123");
         Assertions.assertEquals("Person deleted: 1", result);
+        // Requests are locked before the record, in the same order as by request operations
+        InOrder inOrder = Mockito.inOrder(creditCardRequestService, personRepository);
+        inOrder.verify(creditCardRequestService).lockCreditCardRequests("123");
+        inOrder.verify(personRepository).deleteByOib("123");
+        // Requests are deactivated once deletion is committed, without counting them first
+        Mockito.verify(creditCardRequestService).scheduleCreditCardRequestDeactivation("123");
+        Mockito.verify(creditCardRequestService, Mockito.never()).deactivateCreditCardRequest("123");
     }
 
     @Test
@@ -0,0 +1,199 @@
+package hr.pavetic.creditcardrequestsrecords.service;
+
+import hr.pavetic.creditcardrequestsrecords.dto.PersonDto;
+import hr.pavetic.creditcardrequestsrecords.model.RequestOutboxEntry;
+import hr.pavetic.creditcardrequestsrecords.model.Status;
+import hr.pavetic.creditcardrequestsrecords.repository.CreditCardRequestRepository;
+import hr.pavetic.creditcardrequestsrecords.repository.RequestOutboxRepository;
+import hr.pavetic.creditcardrequestsrecords.service.impl.RequestOutboxRelay;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+class RequestOutboxRelayTest {
+    private final RequestOutboxRepository requestOutboxRepository =
+            Mockito.mock(RequestOutboxRepository.class);
+    private final CreditCardRequestRepository creditCardRequestRepository =
+            Mockito.mock(CreditCardRequestRepository.class);
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RequestOutboxRelay requestOutboxRelay = new RequestOutboxRelay(requestOutboxRepository,
+            creditCardRequestRepository, 3, Duration.ofSeconds(1), Duration.ofMinutes(5), 3, meterRegistry);
+
+    private static PersonDto getPersonDto(String oib) {
+        return PersonDto.builder()
+                .oib(oib)
+                .name("Dorian")
+                .lastName("Pavetic")
+                .status(Status.ACTIVE)
+                .build();
+    }
+
+    private static RequestOutboxEntry withId(long id, RequestOutboxEntry entry) {
+        entry.setId(id);
+        return entry;
+    }
+
+    @Test
+    void relayEntriesInOrderTest() throws IOException {
+        List<RequestOutboxEntry> firstBatch = List.of(
+                withId(1, RequestOutboxEntry.create(getPersonDto("12345678901"))),
+                withId(2, RequestOutboxEntry.create(getPersonDto("12345678902"))),
+                withId(3, RequestOutboxEntry.deactivate("12345678901")));
+        List<RequestOutboxEntry> secondBatch = List.of(
+                withId(4, RequestOutboxEntry.create(getPersonDto("12345678901"))));
+        Mockito.when(requestOutboxRepository.findPending(ArgumentMatchers.any(Instant.class), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(firstBatch, secondBatch);
+        Mockito.when(creditCardRequestRepository.findOibsWithActiveRequest(ArgumentMatchers.any()))
+                .thenReturn(Set.of());
+        Mockito.when(creditCardRequestRepository.writePersonDtoRequests(ArgumentMatchers.any()))
+                .thenAnswer(invocation -> {
+                    List<PersonDto> personDtos = invocation.getArgument(0);
+                    return personDtos.stream().map(personDto -> Paths.get(personDto.getOib() + "_1.txt")).toList();
+                });
+        Mockito.when(creditCardRequestRepository.deactivateActiveRequests("12345678901"))
+                .thenReturn(List.of(Paths.get("12345678901_1.txt")));
+
+        Assertions.assertEquals(4, requestOutboxRelay.relay());
+
+        // Deactivation sees request created before it, and the one after it is created afterwards.
+        // Entries are deleted before the next entry of the same person is applied
+        InOrder inOrder = Mockito.inOrder(creditCardRequestRepository, requestOutboxRepository);
+        inOrder.verify(creditCardRequestRepository).writePersonDtoRequests(
+                List.of(getPersonDto("12345678901"), getPersonDto("12345678902")));
+        inOrder.verify(requestOutboxRepository).deleteAllByIdInBatch(List.of(1L, 2L));
+        inOrder.verify(creditCardRequestRepository).deactivateActiveRequests("12345678901");
+        inOrder.verify(requestOutboxRepository).deleteAllByIdInBatch(List.of(3L));
+        inOrder.verify(creditCardRequestRepository).writePersonDtoRequests(List.of(getPersonDto("12345678901")));
+        inOrder.verify(requestOutboxRepository).deleteAllByIdInBatch(List.of(4L));
+    }
+
+    @Test
+    void relayAlreadyAppliedEntriesTest() throws IOException {
+        // Batch was applied, but not deleted before a crash
+        Mockito.when(requestOutboxRepository.findPending(ArgumentMatchers.any(Instant.class), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(List.of(
+                        withId(1, RequestOutboxEntry.create(getPersonDto("12345678901"))),
+                        withId(2, RequestOutboxEntry.create(getPersonDto("12345678902")))));
+        Mockito.when(creditCardRequestRepository.findOibsWithActiveRequest(ArgumentMatchers.any()))
+                .thenReturn(Set.of("12345678901"));
+
+        Assertions.assertEquals(2, requestOutboxRelay.relay());
+        Mockito.verify(creditCardRequestRepository).writePersonDtoRequests(List.of(getPersonDto("12345678902")));
+        Mockito.verify(requestOutboxRepository).deleteAllByIdInBatch(List.of(1L, 2L));
+    }
+
+    @Test
+    void failedEntryHoldsBackOnlyItsPersonTest() throws IOException {
+        RequestOutboxEntry failing = withId(1, RequestOutboxEntry.deactivate("12345678901"));
+        Mockito.when(requestOutboxRepository.findPending(ArgumentMatchers.any(Instant.class), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(List.of(
+                        failing,
+                        withId(2, RequestOutboxEntry.create(getPersonDto("12345678902"))),
+                        withId(3, RequestOutboxEntry.create(getPersonDto("12345678901")))),
+                        // Failed entry and the entry held back by it are not due anymore
+                        List.of());
+        Mockito.when(creditCardRequestRepository.deactivateActiveRequests("12345678901"))
+                .thenThrow(new IOException("some error"));
+        Mockito.when(creditCardRequestRepository.findOibsWithActiveRequest(ArgumentMatchers.any()))
+                .thenReturn(Set.of());
+
+        Instant before = Instant.now();
+        Assertions.assertEquals(1, requestOutboxRelay.relay());
+        Mockito.verify(creditCardRequestRepository, Mockito.never())
+                .writePersonDtoRequests(List.of(getPersonDto("12345678901")));
+        Mockito.verify(creditCardRequestRepository).writePersonDtoRequests(List.of(getPersonDto("12345678902")));
+        Mockito.verify(requestOutboxRepository).deleteAllByIdInBatch(List.of(2L));
+
+        // Failed entry is kept and retried later
+        Mockito.verify(requestOutboxRepository).save(failing);
+        Assertions.assertEquals(1, failing.getAttempts());
+        Assertions.assertFalse(failing.getNextAttemptAt().isBefore(before.plusSeconds(1)));
+        Assertions.assertEquals(1, meterRegistry.get("requests.outbox.failures").counter().count());
+        Assertions.assertEquals(1, meterRegistry.get("requests.outbox.relayed").counter().count());
+    }
+
+    @Test
+    void failedBatchDoesNotReapplyAppliedEntriesTest() throws IOException {
+        Mockito.when(requestOutboxRepository.findPending(ArgumentMatchers.any(Instant.class), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(List.of(
+                        withId(1, RequestOutboxEntry.create(getPersonDto("12345678901"))),
+                        withId(2, RequestOutboxEntry.deactivate("12345678901")),
+                        withId(3, RequestOutboxEntry.create(getPersonDto("12345678902")))),
+                        List.of());
+        // Created request is deactivated, so the person has no active request afterwards
+        Mockito.when(creditCardRequestRepository.findOibsWithActiveRequest(ArgumentMatchers.any()))
+                .thenReturn(Set.of());
+        Mockito.when(creditCardRequestRepository.writePersonDtoRequests(List.of(getPersonDto("12345678902"))))
+                .thenThrow(new IOException("some error"));
+
+        Assertions.assertEquals(2, requestOutboxRelay.relay());
+        // Request of the first person is created once, not again when its batch is retried
+        Mockito.verify(creditCardRequestRepository).writePersonDtoRequests(List.of(getPersonDto("12345678901")));
+        Mockito.verify(requestOutboxRepository).deleteAllByIdInBatch(List.of(1L));
+        Mockito.verify(requestOutboxRepository).deleteAllByIdInBatch(List.of(2L));
+        Mockito.verify(requestOutboxRepository, Mockito.never()).deleteAllByIdInBatch(List.of(3L));
+    }
+
+    @Test
+    void entryFailingManyAttemptsIsRetriedWithCappedDelayTest() throws IOException {
+        RequestOutboxEntry failing = withId(1, RequestOutboxEntry.deactivate("12345678901"));
+        failing.setAttempts(30);
+        Mockito.when(requestOutboxRepository.findPending(ArgumentMatchers.any(Instant.class), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(List.of(failing), List.of());
+        Mockito.when(creditCardRequestRepository.deactivateActiveRequests("12345678901"))
+                .thenThrow(new IOException("some error"));
+
+        Instant before = Instant.now();
+        Assertions.assertEquals(0, requestOutboxRelay.relay());
+
+        // Entry is never given up on, it is retried after the maximum delay
+        Mockito.verify(requestOutboxRepository).save(failing);
+        Mockito.verify(requestOutboxRepository, Mockito.never()).deleteAllByIdInBatch(ArgumentMatchers.any());
+        Assertions.assertEquals(31, failing.getAttempts());
+        Assertions.assertFalse(failing.getNextAttemptAt().isBefore(before.plus(Duration.ofMinutes(5))));
+        Assertions.assertTrue(failing.getNextAttemptAt().isBefore(Instant.now().plus(Duration.ofMinutes(6))));
+    }
+
+    @Test
+    void backlogMetricsTest() throws InterruptedException {
+        Mockito.when(requestOutboxRepository.findPending(ArgumentMatchers.any(Instant.class), ArgumentMatchers.any(Pageable.class)))
+                .thenReturn(List.of());
+        Mockito.when(requestOutboxRepository.count())
+                .thenReturn(7L);
+        Mockito.when(requestOutboxRepository.countByAttemptsGreaterThanEqual(3))
+                .thenReturn(2L);
+        Mockito.when(requestOutboxRepository.findOldestCreatedAt())
+                .thenReturn(Instant.now().minusSeconds(30));
+
+        requestOutboxRelay.start();
+        try {
+            Awaitility.await().atMost(org.awaitility.Duration.FIVE_SECONDS)
+                    .until(() -> meterRegistry.get("requests.outbox.depth").gauge().value() == 7);
+            Assertions.assertTrue(meterRegistry.get("requests.outbox.lag").timeGauge().value(TimeUnit.SECONDS) >= 30);
+            Assertions.assertEquals(2, meterRegistry.get("requests.outbox.stuck").gauge().value());
+        } finally {
+            requestOutboxRelay.stop();
+        }
+    }
+
+    @Test
+    void wakeUpBeforeStartTest() {
+        // Entries committed before relay is started are relayed once it starts
+        requestOutboxRelay.wakeUp();
+        Mockito.verifyNoInteractions(requestOutboxRepository);
+    }
+}